@@ -0,0 +1,92 @@
+package com.toothbrush.benchmark;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import com.toothbrush.util.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The util building blocks on their own, over the product names of a generated catalog
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlgorithmBenchmark {
+
+    @Param({"120", "10000"})
+    public int products;
+
+    private List<String> names;
+    private String corpus;
+    private CompactTrie vocabulary;
+    private BoyerMoore pattern;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, CsvValidationException {
+        Path catalog = Fixtures.catalog(products);
+        names = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(Files.newBufferedReader(catalog, StandardCharsets.UTF_8))) {
+            reader.readNext(); // Header
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                names.add(line[1]);
+            }
+        }
+        Fixtures.delete(catalog);
+        corpus = String.join(" ", names).toLowerCase();
+        vocabulary = new CompactTrie(buildTrie());
+        pattern = BoyerMoore.compile("toothbrush");
+    }
+
+    @Benchmark
+    public Trie trieBuild() {
+        return buildTrie();
+    }
+
+    @Benchmark
+    public int[] trieLookup() {
+        return vocabulary.searchPostings("toothbrush");
+    }
+
+    @Benchmark
+    public List<String> trieFuzzy() {
+        return vocabulary.findWordsWithinDistance("tothbrush", 2);
+    }
+
+    @Benchmark
+    public int boyerMooreCount() {
+        return pattern.countOccurrences(corpus);
+    }
+
+    @Benchmark
+    public int editDistance() {
+        return EditDistance.calculate("rechargable", "rechargeable");
+    }
+
+    @Benchmark
+    public int editDistanceBounded() {
+        return EditDistance.calculate("rechargable", "oscillating", 2);
+    }
+
+    private Trie buildTrie() {
+        Trie trie = new Trie();
+        for (int docId = 0; docId < names.size(); docId++) {
+            int position = 0;
+            for (String word : names.get(docId).toLowerCase().split("\\W+")) {
+                if (!word.isEmpty()) {
+                    trie.insert(word, docId, position++);
+                }
+            }
+        }
+        return trie;
+    }
+}
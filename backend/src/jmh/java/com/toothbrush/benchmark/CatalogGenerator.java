@@ -0,0 +1,126 @@
+package com.toothbrush.benchmark;
+
+import com.opencsv.CSVWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Deterministic synthetic catalogs in the column layout of all_toothbrushes.csv, from the ~120
+// rows of the real file up to millions. Names follow the real ones ("Sonicare 4100 Series Sonic
+// electric toothbrush - White"): a few very common words, a line name, a model code, a drive type
+// and optional extras. The vocabulary grows with the catalog like a real one would: product
+// lines, model codes and brands are drawn from pools that scale with the row count, with
+// skewed (roughly Zipf-like) picks so a handful of words dominate.
+//
+//   java -cp ... com.toothbrush.benchmark.CatalogGenerator <products> <file.csv> [seed]
+public final class CatalogGenerator {
+    public static final long DEFAULT_SEED = 42;
+
+    static final String[] HEADER = {"Brand", "Title", "Price", "Image URL", "Product URL",
+            "Battery_Life", "Waterproof_Rating", "Toothbrush_Type"};
+
+    private static final String[] BRANDS = {"Oral-B", "Philips", "Burst", "Fairywill", "Usmile"};
+    private static final String[] LINES = {"Sonicare", "iO", "Pro", "Genius", "Vitality", "DiamondClean",
+            "ProtectiveClean", "ExpertClean", "Essential", "Kids", "Classic", "Smart", "Deep Clean", "3D White",
+            "Pulsar", "Curve", "One", "Gum Care", "Cavity Protection", "Whitening"};
+    private static final String[] DRIVES = {"Sonic", "Electric", "Battery", "Power", "Rechargeable",
+            "Oscillating", "Sonic Electric", "Oscillation Vibration Sonic"};
+    private static final String[] PRODUCTS = {"Toothbrush", "Toothbrush", "Toothbrush", "Toothbrush",
+            "toothbrush", "Brush Heads", "Water Flosser"};
+    private static final String[] EXTRAS = {"- Black", "- White", "- Pink", "- Blue", "- Marine Teal",
+            "with 3 Brush Heads", "IPX7 Waterproof", "USB Charging", "4 Modes", "with Travel Case", "with app",
+            "Pressure Sensor", "2 Minute Timer", "Value Pack"};
+    private static final String[] BATTERY = {"14", "21", "30", "35", "75", "270", ""};
+    private static final String[] WATERPROOF = {"IPX7", "IPX7", "IPX8", "IP not explicitly", ""};
+    private static final String[] TYPES = {"sonic", "sonic", "oscillating-rotating", "battery",
+            "oscillating-vibrating sonic"};
+    private static final String[] SYLLABLES = {"ze", "lu", "mi", "vo", "ra", "ti", "no", "ka", "sen", "dra",
+            "flo", "bri", "ex", "ul", "qua", "pi", "den", "to", "vi", "ro"};
+
+    private CatalogGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CatalogGenerator <products> <file.csv> [seed]");
+            System.exit(1);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        write(Paths.get(args[1]), Integer.parseInt(args[0]), seed);
+    }
+
+    // Writes products rows; the same count and seed always give the same file
+    public static void write(Path file, int products, long seed) throws IOException {
+        Random random = new Random(seed);
+        String[] brands = pool(BRANDS, 5 + products / 2_000, random);
+        String[] lines = pool(LINES, 20 + products / 50, random);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             CSVWriter csv = new CSVWriter(out)) {
+            csv.writeNext(HEADER);
+            for (int i = 0; i < products; i++) {
+                String brand = skewed(brands, random);
+                String slug = brand.toLowerCase().replaceAll("\\W+", "");
+                csv.writeNext(new String[]{
+                        brand,
+                        name(brand, lines, random),
+                        String.format(Locale.ROOT, "$%.2f ", 5 + 300 * Math.pow(random.nextDouble(), 2)),
+                        "https://example.com/" + slug + "/images/" + i + ".png",
+                        "https://example.com/" + slug + "/products/" + i,
+                        BATTERY[random.nextInt(BATTERY.length)],
+                        WATERPROOF[random.nextInt(WATERPROOF.length)],
+                        TYPES[random.nextInt(TYPES.length)]});
+            }
+        }
+    }
+
+    private static String name(String brand, String[] lines, Random random) {
+        StringBuilder name = new StringBuilder();
+        if (random.nextInt(3) == 0) {
+            name.append(brand).append(' ');
+        }
+        name.append(skewed(lines, random)).append(' ');
+        name.append(modelCode(random)).append(' ');
+        name.append(DRIVES[random.nextInt(DRIVES.length)]).append(' ');
+        name.append(PRODUCTS[random.nextInt(PRODUCTS.length)]);
+        int extras = random.nextInt(3);
+        for (int i = 0; i < extras; i++) {
+            name.append(' ').append(EXTRAS[random.nextInt(EXTRAS.length)]);
+        }
+        return name.toString();
+    }
+
+    // "4100 Series", "FW-551", "P20": mostly short numbers, so codes repeat across products
+    private static String modelCode(Random random) {
+        switch (random.nextInt(3)) {
+            case 0: return (1 + random.nextInt(99)) * 100 + " Series";
+            case 1: return (char) ('A' + random.nextInt(26)) + "" + (char) ('A' + random.nextInt(26))
+                    + "-" + random.nextInt(1_000);
+            default: return (char) ('A' + random.nextInt(26)) + "" + random.nextInt(100);
+        }
+    }
+
+    // The real names followed by invented ones, up to size
+    private static String[] pool(String[] real, int size, Random random) {
+        String[] pool = Arrays.copyOf(real, Math.max(real.length, size));
+        for (int i = real.length; i < pool.length; i++) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 2 + random.nextInt(3);
+            for (int s = 0; s < syllables; s++) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+            pool[i] = word.toString();
+        }
+        return pool;
+    }
+
+    // Picks low indexes far more often than high ones
+    private static String skewed(String[] values, Random random) {
+        return values[(int) (values.length * Math.pow(random.nextDouble(), 3))];
+    }
+}
@@ -0,0 +1,46 @@
+package com.toothbrush.benchmark;
+
+import com.toothbrush.service.SearchEngineService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Generated catalogs and SearchEngineService instances configured the way Spring would, minus
+// the application context
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static Path catalog(int products) throws IOException {
+        Path file = Files.createTempFile("catalog-" + products + "-", ".csv");
+        CatalogGenerator.write(file, products, CatalogGenerator.DEFAULT_SEED);
+        return file;
+    }
+
+    // A service over catalog; snapshotFile null disables the binary index snapshot, a cache
+    // weight of 0 disables the result cache
+    static SearchEngineService service(Path catalog, Path snapshotFile, long cacheMaxWeight) {
+        return service(catalog, snapshotFile, cacheMaxWeight, 1);
+    }
+
+    // The same, ranking large queries in the given number of document-id shards
+    static SearchEngineService service(Path catalog, Path snapshotFile, long cacheMaxWeight, int shards) {
+        SearchEngineService service = new SearchEngineService();
+        service.setCatalogPath(catalog.toString());
+        service.setSnapshotPath(snapshotFile == null ? "" : snapshotFile.toString());
+        service.setCacheMaxWeight(cacheMaxWeight);
+        service.setShards(shards);
+        service.init();
+        return service;
+    }
+
+    static void delete(Path... files) throws IOException {
+        for (Path file : files) {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
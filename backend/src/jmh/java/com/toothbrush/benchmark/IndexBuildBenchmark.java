@@ -0,0 +1,55 @@
+package com.toothbrush.benchmark;
+
+import com.opencsv.exceptions.CsvValidationException;
+import com.toothbrush.service.SearchEngineService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Time to get an index: a full reload (parse the CSV, build every structure) and a cold start
+// from the binary index snapshot written for the same catalog
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class IndexBuildBenchmark {
+
+    @Param({"120", "10000", "100000"})
+    public int products;
+
+    private Path catalog;
+    private Path snapshotFile;
+    private SearchEngineService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        catalog = Fixtures.catalog(products);
+        snapshotFile = Files.createTempFile("index-" + products + "-", ".snapshot");
+        Files.delete(snapshotFile);
+        Fixtures.service(catalog, snapshotFile, 0).shutdown(); // Writes the snapshot file
+        service = Fixtures.service(catalog, null, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.shutdown();
+        Fixtures.delete(catalog, snapshotFile);
+    }
+
+    @Benchmark
+    public long reloadFromCsv() throws IOException, CsvValidationException {
+        return service.reload();
+    }
+
+    @Benchmark
+    public int startFromSnapshot() {
+        SearchEngineService started = Fixtures.service(catalog, snapshotFile, 0);
+        started.shutdown();
+        return started.getProductCount();
+    }
+}
@@ -0,0 +1,96 @@
+package com.toothbrush.benchmark;
+
+import com.toothbrush.model.ProductPage;
+import com.toothbrush.service.SearchEngineService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Request-level operations of SearchEngineService with the result cache off, so every call does
+// the full work. All query words occur in generated catalogs of any size.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"120", "10000", "100000"})
+    public int products;
+
+    private Path catalog;
+    private SearchEngineService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        catalog = Fixtures.catalog(products);
+        service = Fixtures.service(catalog, null, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.shutdown();
+        Fixtures.delete(catalog);
+    }
+
+    @Benchmark
+    public ProductPage searchSingleWord() {
+        return service.searchProducts("sonic", null, null, null, 0, 1, 20);
+    }
+
+    @Benchmark
+    public ProductPage searchMultiWord() {
+        return service.searchProducts("sonic electric toothbrush", null, null, null, 0, 1, 20);
+    }
+
+    @Benchmark
+    public ProductPage searchFuzzy() {
+        return service.searchProducts("sonik tothbrush", null, null, null, 2, 1, 20);
+    }
+
+    @Benchmark
+    public ProductPage searchSortedFiltered() {
+        return service.searchProducts("toothbrush", List.of("price_asc"), List.of("Philips", "Oral-B"),
+                List.of("sonic"), 0, 1, 20);
+    }
+
+    @Benchmark
+    public ProductPage listSorted() {
+        return service.getAllProducts(List.of("battery_desc", "price_asc"), null, null, 3, 20);
+    }
+
+    @Benchmark
+    public ProductPage listFiltered() {
+        return service.getAllProducts(null, List.of("Burst"), List.of("sonic"), 1, 20);
+    }
+
+    @Benchmark
+    public List<String> autocomplete() {
+        return service.autocomplete("so", 10);
+    }
+
+    @Benchmark
+    public List<String> autocompletePhrase() {
+        return service.autocomplete("sonic electric to", 10);
+    }
+
+    @Benchmark
+    public Map<String, Object> spellcheck() {
+        return service.checkSpelling("electrik tothbrush");
+    }
+
+    @Benchmark
+    public int substringFrequency() {
+        return service.getWordFrequency("brush");
+    }
+
+    @Benchmark
+    public int tokenFrequency() {
+        return service.getTokenFrequency("sonic");
+    }
+}
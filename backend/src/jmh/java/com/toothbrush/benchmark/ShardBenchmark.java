@@ -0,0 +1,68 @@
+package com.toothbrush.benchmark;
+
+import com.toothbrush.model.ProductPage;
+import com.toothbrush.service.SearchEngineService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Sharded (scatter-gather) ranking against the single-index path, shards = 1, with the result
+// cache off. Only queries matching at least a few thousand products fan out, so these are broad
+// ones. The speedup is bounded by the cores available: compare with -t 1 and -t <cores> too.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardBenchmark {
+
+    @Param({"10000", "100000"})
+    public int products;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    private Path catalog;
+    private SearchEngineService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        catalog = Fixtures.catalog(products);
+        service = Fixtures.service(catalog, null, 0, shards);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.shutdown();
+        Fixtures.delete(catalog);
+    }
+
+    @Benchmark
+    public ProductPage searchBroad() {
+        return service.searchProducts("toothbrush", null, null, null, 0, 1, 20);
+    }
+
+    @Benchmark
+    public ProductPage searchMultiWord() {
+        return service.searchProducts("sonic electric toothbrush", null, null, null, 0, 1, 20);
+    }
+
+    @Benchmark
+    public ProductPage searchFuzzy() {
+        return service.searchProducts("sonik tothbrush", null, null, null, 2, 1, 20);
+    }
+
+    @Benchmark
+    public ProductPage searchSorted() {
+        return service.searchProducts("toothbrush", List.of("price_asc"), null, null, 0, 1, 20);
+    }
+
+    @Benchmark
+    public ProductPage searchDeepPage() {
+        return service.searchProducts("electric toothbrush", null, null, null, 0, 50, 20);
+    }
+}
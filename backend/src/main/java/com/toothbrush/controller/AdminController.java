@@ -0,0 +1,105 @@
+package com.toothbrush.controller;
+
+import com.toothbrush.model.Product;
+import com.toothbrush.service.SearchEngineService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+
+// Catalog maintenance. Only registered when admin.enabled=true, and then every endpoint is only
+// callable with the shared admin.token in X-Admin-Token, or from loopback when no token is
+// configured. There is no @CrossOrigin: the storefront never calls these, so browsers on other
+// origins cannot either.
+@RestController
+@RequestMapping("/api/admin")
+@ConditionalOnProperty(name = "admin.enabled", havingValue = "true")
+public class AdminController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdminController.class);
+
+    static final String TOKEN_HEADER = "X-Admin-Token";
+
+    @Autowired
+    private SearchEngineService searchService;
+
+    @Value("${admin.token:}")
+    private String token;
+
+    // Rebuilds the indexes from the catalog file; searches keep being served meanwhile
+    @PostMapping("/reload")
+    public ResponseEntity<?> reload(HttpServletRequest request) {
+        if (!authorized(request)) {
+            return forbidden();
+        }
+        try {
+            long version = searchService.reload();
+            return ResponseEntity.ok(Map.of("message", "Catalog reloaded",
+                    "version", version, "products", searchService.getProductCount()));
+        } catch (Exception e) {
+            // The details (file paths, parse errors) stay in the log; the previous index keeps serving
+            log.error("Catalog reload failed", e);
+            return ResponseEntity.status(500).body(Map.of("message", "Reload failed",
+                    "version", searchService.getIndexVersion()));
+        }
+    }
+
+    // Inserts or updates products by productUrl; omitted fields keep their current value,
+    // so a price diff is just [{"productUrl": ..., "price": ...}]
+    @PostMapping("/products")
+    public ResponseEntity<?> upsertProducts(@RequestBody List<Product> products, HttpServletRequest request) {
+        if (!authorized(request)) {
+            return forbidden();
+        }
+        try {
+            long version = searchService.upsertProducts(products);
+            return ResponseEntity.ok(Map.of("message", "Products updated",
+                    "version", version, "products", searchService.getProductCount()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/products")
+    public ResponseEntity<?> deleteProducts(@RequestParam List<String> urls, HttpServletRequest request) {
+        if (!authorized(request)) {
+            return forbidden();
+        }
+        long version = searchService.deleteProducts(urls);
+        return ResponseEntity.ok(Map.of("message", "Products deleted",
+                "version", version, "products", searchService.getProductCount()));
+    }
+
+    private boolean authorized(HttpServletRequest request) {
+        if (token.isEmpty()) {
+            return isLoopback(request.getRemoteAddr());
+        }
+        String given = request.getHeader(TOKEN_HEADER);
+        // Constant-time, so the token cannot be guessed byte by byte from response times
+        return given != null && MessageDigest.isEqual(
+                given.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isLoopback(String address) {
+        try {
+            return InetAddress.getByName(address).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static ResponseEntity<?> forbidden() {
+        return ResponseEntity.status(403).body(Map.of("message", "Admin access denied"));
+    }
+}
@@ -1,10 +1,21 @@
 package com.toothbrush.controller;
 
-import com.toothbrush.model.Product;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.toothbrush.service.ResultPage;
+import com.toothbrush.service.SearchBundle;
 import com.toothbrush.service.SearchEngineService;
+import com.toothbrush.service.SearchPopularityTracker;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,31 +27,129 @@ public class SearchController {
     @Autowired
     private SearchEngineService searchService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static final byte[] RESULTS = "{\"results\":".getBytes(StandardCharsets.US_ASCII);
+
+    private final VersionedResponses versioned = new VersionedResponses();
+
     @GetMapping("/brands")
-    public List<String> getBrands() {
-        return searchService.getAllBrands();
+    public ResponseEntity<byte[]> getBrands(@RequestHeader HttpHeaders headers) {
+        return versioned.get("brands", searchService.getIndexVersion(), headers,
+                () -> toJson(searchService.getAllBrands()));
     }
 
     @GetMapping("/types")
-    public List<String> getToothbrushTypes() {
-        return searchService.getAllToothbrushTypes();
+    public ResponseEntity<byte[]> getToothbrushTypes(@RequestHeader HttpHeaders headers) {
+        return versioned.get("types", searchService.getIndexVersion(), headers,
+                () -> toJson(searchService.getAllToothbrushTypes()));
     }
 
+    // fields= limits each product to the listed properties (comma-separated or repeated), e.g.
+    // fields=name,price,imageUrl; results are written from JSON encoded when the index was built.
+    // Pages without brand or type filters carry an ETag of the index version and are served gzipped.
     @GetMapping("/products")
-    public List<Product> getAllProducts(
+    public ResponseEntity<byte[]> getAllProducts(
             @RequestParam(required = false, defaultValue = "default") List<String> sort,
             @RequestParam(required = false) List<String> brands,
-            @RequestParam(required = false) List<String> types) {
-        return searchService.getAllProducts(sort, brands, types);
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(required = false, defaultValue = "1") int page,
+            @RequestParam(required = false, defaultValue = "20") int size,
+            @RequestParam(required = false) List<String> fields,
+            @RequestParam(required = false) String debug,
+            @RequestHeader HttpHeaders headers) throws JsonProcessingException {
+        if (isEmpty(brands) && isEmpty(types) && debug == null) {
+            String key = "products " + sort + " " + page + " " + size + " " + fields;
+            return versioned.get(key, searchService.getIndexVersion(), headers,
+                    () -> searchService.listPage(sort, null, null, page, size, null).toJson(fields));
+        }
+        Map<String, Object> timing = "timing".equals(debug) ? new LinkedHashMap<>() : null;
+        return json(searchService.listPage(sort, brands, types, page, size, timing), fields, timing);
     }
 
     @GetMapping("/search")
-    public List<Product> search(
+    public ResponseEntity<byte[]> search(
             @RequestParam String query, 
             @RequestParam(required = false, defaultValue = "default") List<String> sort,
             @RequestParam(required = false) List<String> brands,
-            @RequestParam(required = false) List<String> types) {
-        return searchService.searchProducts(query, sort, brands, types);
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(required = false, defaultValue = "0") int fuzzy,
+            @RequestParam(required = false, defaultValue = "1") int page,
+            @RequestParam(required = false, defaultValue = "20") int size,
+            @RequestParam(required = false) List<String> fields,
+            @RequestParam(required = false) String debug) throws JsonProcessingException {
+        Map<String, Object> timing = "timing".equals(debug) ? new LinkedHashMap<>() : null;
+        return json(searchService.searchPage(query, sort, brands, types, fuzzy, page, size, timing), fields, timing);
+    }
+
+    // One round trip for a new search: {"results": {items, total, page, size}, "spellcheck":
+    // {exists, suggestions}, "facets": {...}, "topSearches": [...]}, the same objects /search,
+    // /spellcheck, /facets and /top-searches return. The parts are computed in parallel.
+    @GetMapping("/search/bundle")
+    public ResponseEntity<byte[]> searchBundle(
+            @RequestParam String query,
+            @RequestParam(required = false, defaultValue = "default") List<String> sort,
+            @RequestParam(required = false) List<String> brands,
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(required = false, defaultValue = "0") int fuzzy,
+            @RequestParam(required = false, defaultValue = "1") int page,
+            @RequestParam(required = false, defaultValue = "20") int size,
+            @RequestParam(required = false) List<String> fields) throws JsonProcessingException {
+        SearchBundle bundle = searchService.searchBundle(query, sort, brands, types, fuzzy, page, size);
+        Map<String, Object> rest = new LinkedHashMap<>();
+        rest.put("spellcheck", bundle.getSpelling());
+        rest.put("facets", bundle.getFacets());
+        rest.put("topSearches", topSearches(bundle.getTopSearches()));
+        byte[] results = bundle.getResults().toJson(fields);
+        byte[] head = new byte[RESULTS.length + results.length + 1]; // {"results":{...}}
+        System.arraycopy(RESULTS, 0, head, 0, RESULTS.length);
+        System.arraycopy(results, 0, head, RESULTS.length, results.length);
+        head[head.length - 1] = '}';
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                .body(merge(head, objectMapper.writeValueAsBytes(rest)));
+    }
+
+    // {items, total, page, size}, plus with debug=timing a "timing" section holding the service's
+    // per-stage breakdown and the time it took to produce the JSON
+    private ResponseEntity<byte[]> json(ResultPage result, List<String> fields, Map<String, Object> timing)
+            throws JsonProcessingException {
+        long start = System.nanoTime();
+        byte[] body = result.toJson(fields);
+        if (timing != null) {
+            timing.put("serializeMs", (System.nanoTime() - start) / 1_000_000.0);
+            body = merge(body, objectMapper.writeValueAsBytes(Map.of("timing", timing)));
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    // Members of two non-empty JSON objects in one: {"a":...} + {"b":...} -> {"a":...,"b":...}
+    private static byte[] merge(byte[] object, byte[] more) {
+        byte[] merged = Arrays.copyOf(object, object.length + more.length - 1);
+        merged[object.length - 1] = ',';
+        System.arraycopy(more, 1, merged, object.length, more.length - 1);
+        return merged;
+    }
+
+    private static boolean isEmpty(List<String> values) {
+        return values == null || values.isEmpty();
+    }
+
+    private byte[] toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @GetMapping("/facets")
+    public Map<String, Object> getFacets(
+            @RequestParam(required = false) String query,
+            @RequestParam(required = false) List<String> brands,
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(required = false, defaultValue = "0") int fuzzy) {
+        return searchService.getFacetCounts(query, brands, types, fuzzy);
     }
 
     @GetMapping("/spellcheck")
@@ -49,19 +158,43 @@ public class SearchController {
     }
 
     @GetMapping("/autocomplete")
-    public List<String> autocomplete(@RequestParam String prefix) {
-        return searchService.autocomplete(prefix);
+    public List<String> autocomplete(
+            @RequestParam String prefix,
+            @RequestParam(required = false, defaultValue = "10") int limit) {
+        return searchService.autocomplete(prefix, limit);
     }
 
+    // mode=substring (default) counts every occurrence in names and descriptions;
+    // mode=token counts whole indexed words in product names
     @GetMapping("/frequency")
-    public int getFrequency(@RequestParam String word) {
+    public int getFrequency(@RequestParam String word,
+                            @RequestParam(required = false, defaultValue = "substring") String mode) {
+        if ("token".equalsIgnoreCase(mode)) {
+            return searchService.getTokenFrequency(word);
+        }
         return searchService.getWordFrequency(word);
     }
 
     @GetMapping("/top-searches")
-    public List<Map<String, Object>> getTopSearches() {
-        return searchService.getTopSearches().stream()
+    public List<Map<String, Object>> getTopSearches(
+            @RequestParam(required = false, defaultValue = "all") String window) {
+        SearchPopularityTracker.Window w;
+        try {
+            w = SearchPopularityTracker.Window.valueOf(window.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            w = SearchPopularityTracker.Window.ALL;
+        }
+        return topSearches(searchService.getTopSearches(w));
+    }
+
+    private static List<Map<String, Object>> topSearches(List<Map.Entry<String, Long>> top) {
+        return top.stream()
             .map(e -> Map.of("term", (Object)e.getKey(), "count", e.getValue()))
             .collect(java.util.stream.Collectors.toList());
     }
+
+    @GetMapping("/cache-stats")
+    public Map<String, Long> getCacheStats() {
+        return searchService.getCacheStats();
+    }
 }
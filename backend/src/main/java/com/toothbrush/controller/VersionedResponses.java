@@ -0,0 +1,113 @@
+package com.toothbrush.controller;
+
+import com.toothbrush.util.LruCache;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Bodies that only change with the index version: /api/brands, /api/types and unfiltered
+// /api/products. Each is encoded once per version, as JSON and gzip, and tagged with a strong
+// ETag of the version; a request whose If-None-Match still holds that tag gets 304 before any
+// service method runs. Index versions restart at 1 with the process, so tags also carry the start
+// time. Clients are told to revalidate every time (no-cache), since a reload can happen at any moment.
+final class VersionedResponses {
+    private static final long MAX_BYTES = 4L << 20;
+    private static final int MIN_GZIP_BYTES = 256; // Below this gzip's header outweighs the savings
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final LruCache<String, Encoded> bodies =
+            new LruCache<>(MAX_BYTES, e -> e.json.length + (e.gzip == null ? 0 : e.gzip.length));
+
+    private record Encoded(byte[] json, byte[] gzip) {}
+
+    // version must be read before body is produced, so a body is never older than its tag
+    ResponseEntity<byte[]> get(String key, long version, HttpHeaders request, Supplier<byte[]> body) {
+        String tag = "\"" + epoch + "-" + version + "\"";
+        String gzipTag = "\"" + epoch + "-" + version + "-gzip\"";
+        if (matches(request, tag, gzipTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(acceptsGzip(request) ? gzipTag : tag)
+                    .cacheControl(CacheControl.noCache())
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        Encoded encoded = bodies.get(version + " " + key, () -> encode(body.get()));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (encoded.gzip != null && acceptsGzip(request)) {
+            return response.eTag(gzipTag).header(HttpHeaders.CONTENT_ENCODING, "gzip").body(encoded.gzip);
+        }
+        return response.eTag(tag).body(encoded.json);
+    }
+
+    private static Encoded encode(byte[] json) {
+        if (json.length < MIN_GZIP_BYTES) {
+            return new Encoded(json, null);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            gzip.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Encoded(json, out.size() < json.length ? out.toByteArray() : null);
+    }
+
+    // If-None-Match holds either tag (weak comparison) or *; a malformed header matches nothing
+    private static boolean matches(HttpHeaders request, String tag, String gzipTag) {
+        List<String> matches;
+        try {
+            matches = request.getIfNoneMatch();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (String match : matches) {
+            String value = match.startsWith("W/") ? match.substring(2) : match;
+            if (value.equals("*") || value.equals(tag) || value.equals(gzipTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // gzip listed in Accept-Encoding (or *) without q=0
+    private static boolean acceptsGzip(HttpHeaders request) {
+        for (String header : request.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String coding : header.split(",")) {
+                String[] parts = coding.trim().split(";");
+                String name = parts[0].trim();
+                if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                    continue;
+                }
+                boolean refused = false;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            refused = Double.parseDouble(param.substring(2)) == 0;
+                        } catch (NumberFormatException e) {
+                            refused = false;
+                        }
+                    }
+                }
+                if (!refused) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,168 @@
+package com.toothbrush.service;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import com.toothbrush.model.Product;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Reads product CSVs in parallel. Each file is read whole through NIO and cut into chunks of about
+// CHUNK_BYTES at record boundaries (line breaks outside quoted fields); the chunks of all files are
+// parsed with OpenCSV on the common fork-join pool. Files are not memory-mapped: Windows keeps a
+// mapped file locked until the mapping is garbage collected, which would block editing the catalog
+// for a reload. Columns are located by header name, so files with only the first five columns
+// (Brand, Title, Price, Image URL, Product URL) load too. Products are de-duplicated by
+// productUrl: the first occurrence, in source order, wins.
+final class CatalogLoader {
+    static final int CHUNK_BYTES = 1 << 20;
+
+    private static final String[] REQUIRED = {"Brand", "Title", "Price", "Image URL", "Product URL"};
+
+    private CatalogLoader() {
+    }
+
+    static List<Product> load(List<Path> sources) throws IOException, CsvValidationException {
+        List<Chunk> chunks = new ArrayList<>();
+        for (Path source : sources) {
+            chunks.addAll(split(source));
+        }
+        List<List<Product>> parsed;
+        try {
+            parsed = chunks.parallelStream().map(CatalogLoader::parse).collect(java.util.stream.Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof CsvValidationException) {
+                throw (CsvValidationException) e.getCause();
+            }
+            throw e;
+        }
+
+        Set<String> seen = new HashSet<>();
+        List<Product> products = new ArrayList<>();
+        for (List<Product> chunk : parsed) {
+            for (Product product : chunk) {
+                String url = product.getProductUrl();
+                if (url == null || url.isEmpty() || seen.add(url)) {
+                    products.add(product);
+                }
+            }
+        }
+        return products;
+    }
+
+    // A byte range of one file holding whole records, plus that file's column positions
+    private static final class Chunk {
+        final byte[] bytes;
+        final int start;
+        final int end;
+        final Map<String, Integer> columns;
+
+        Chunk(byte[] bytes, int start, int end, Map<String, Integer> columns) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+            this.columns = columns;
+        }
+    }
+
+    private static List<Chunk> split(Path source) throws IOException, CsvValidationException {
+        byte[] bytes = Files.readAllBytes(source);
+        int size = bytes.length;
+        int start = recordEnd(bytes, 0, 0);
+        Map<String, Integer> columns = header(source, decode(bytes, 0, start));
+
+        // One sequential pass tracking quotes finds the record boundaries to cut at;
+        // parsing, the expensive part, then runs per chunk
+        List<Chunk> chunks = new ArrayList<>();
+        while (start < size) {
+            int end = recordEnd(bytes, start, Math.min(size, start + CHUNK_BYTES));
+            chunks.add(new Chunk(bytes, start, end, columns));
+            start = end;
+        }
+        return chunks;
+    }
+
+    // Offset just past the first line break at or after from that is outside a quoted field,
+    // scanning from a record start; the file size if there is none
+    private static int recordEnd(byte[] bytes, int recordStart, int from) {
+        boolean quoted = false;
+        for (int i = recordStart; i < bytes.length; i++) {
+            byte b = bytes[i];
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted && i >= from) {
+                return i + 1;
+            }
+        }
+        return bytes.length;
+    }
+
+    private static Map<String, Integer> header(Path source, String line) throws IOException, CsvValidationException {
+        String[] names;
+        try (CSVReader reader = new CSVReader(new StringReader(line))) {
+            names = reader.readNext();
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; names != null && i < names.length; i++) {
+            columns.put(names[i].replace("\uFEFF", "").trim(), i);
+        }
+        for (String required : REQUIRED) {
+            if (!columns.containsKey(required)) {
+                throw new IOException(source + " has no '" + required + "' column");
+            }
+        }
+        return columns;
+    }
+
+    private static String decode(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static List<Product> parse(Chunk chunk) {
+        List<Product> products = new ArrayList<>();
+        int width = Collections.max(chunk.columns.values()) + 1;
+        try (CSVReader reader = new CSVReader(new StringReader(decode(chunk.bytes, chunk.start, chunk.end)))) {
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                if (line.length < width) {
+                    continue; // Skip lines that don't have enough columns
+                }
+                Product product = new Product();
+                product.setBrand(field(line, chunk.columns, "Brand"));
+                product.setName(field(line, chunk.columns, "Title"));
+                product.setPrice(field(line, chunk.columns, "Price"));
+                product.setImageUrl(field(line, chunk.columns, "Image URL"));
+                product.setProductUrl(field(line, chunk.columns, "Product URL"));
+                product.setBatteryLife(field(line, chunk.columns, "Battery_Life"));
+                product.setWaterproofRating(field(line, chunk.columns, "Waterproof_Rating"));
+                product.setToothbrushType(field(line, chunk.columns, "Toothbrush_Type"));
+
+                // Default values for missing fields
+                product.setReviewCount("0");
+                product.setRating("0.0");
+                product.setInStock("Unknown");
+                product.setDescription(""); // Empty description to avoid nulls
+
+                products.add(product);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (CsvValidationException e) {
+            throw new IllegalStateException(e);
+        }
+        return products;
+    }
+
+    // Columns a file does not have are left empty rather than null
+    private static String field(String[] line, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index == null ? "" : line[index];
+    }
+}
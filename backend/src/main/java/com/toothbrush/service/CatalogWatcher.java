@@ -0,0 +1,92 @@
+package com.toothbrush.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Watches the directories of the catalog files on a daemon thread and calls onChange once a burst
+// of modifications to any of the files has been quiet for SETTLE_MILLIS, so a half-written CSV is
+// not loaded.
+class CatalogWatcher {
+    private static final Logger log = LoggerFactory.getLogger(CatalogWatcher.class);
+    private static final long SETTLE_MILLIS = 500;
+
+    private final Set<Path> files = new HashSet<>();
+    private final Runnable onChange;
+    private WatchService watchService;
+    private Thread thread;
+
+    CatalogWatcher(List<Path> files, Runnable onChange) {
+        for (Path file : files) {
+            this.files.add(file.toAbsolutePath().normalize());
+        }
+        this.onChange = onChange;
+    }
+
+    void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Set<Path> directories = new HashSet<>();
+            for (Path file : files) {
+                if (directories.add(file.getParent())) {
+                    file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot watch catalog {}; use the reload endpoint instead", files, e);
+            return;
+        }
+        thread = new Thread(this::run, "catalog-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching {} for changes", files);
+    }
+
+    void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+                // Shutting down anyway
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = touchesCatalog(key);
+                // Keep draining events until the file has been quiet for a while
+                WatchKey next;
+                while ((next = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= touchesCatalog(next);
+                }
+                if (changed) {
+                    onChange.run();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    private boolean touchesCatalog(WatchKey key) {
+        boolean hit = false;
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path && files.contains(directory.resolve((Path) event.context()))) {
+                hit = true;
+            }
+        }
+        key.reset();
+        return hit;
+    }
+}
@@ -0,0 +1,182 @@
+package com.toothbrush.service;
+
+import com.toothbrush.model.Product;
+
+import java.util.*;
+import java.util.function.Function;
+
+// Per-brand and per-type document bitmaps built once at load time. Filters become
+// bitmap ORs (within a facet) and ANDs (across facets and with the query's candidates).
+// After incremental updates, deleted documents stay in the bitmaps and are masked by live;
+// values left without a live document are dropped from the names and the counts.
+public class FacetIndex {
+    private final int docCount;
+    private final Map<String, BitSet> brandBits;
+    private final Map<String, BitSet> typeBits;
+    private final BitSet live; // null when every document is live
+    private final List<String> brandNames;
+    private final List<String> typeNames;
+
+    public FacetIndex(List<Product> products) {
+        docCount = products.size();
+        brandBits = buildBitmaps(products, Product::getBrand);
+        typeBits = buildBitmaps(products, Product::getToothbrushType);
+        live = null;
+        brandNames = distinctNames(brandBits.keySet());
+        typeNames = distinctNames(typeBits.keySet());
+    }
+
+    private FacetIndex(int docCount, Map<String, BitSet> brandBits, Map<String, BitSet> typeBits, BitSet live) {
+        this.docCount = docCount;
+        this.brandBits = brandBits;
+        this.typeBits = typeBits;
+        this.live = live;
+        this.brandNames = distinctNames(liveValues(brandBits));
+        this.typeNames = distinctNames(liveValues(typeBits));
+    }
+
+    // Index after an incremental update: documents from firstNew on were appended and the
+    // documents in deleted are gone. Only the bitmaps of the appended documents' values are copied.
+    public FacetIndex withChanges(List<Product> products, int firstNew, BitSet deleted) {
+        BitSet nextLive = null;
+        if (!deleted.isEmpty()) {
+            nextLive = new BitSet(products.size());
+            nextLive.set(0, products.size());
+            nextLive.andNot(deleted);
+        }
+        return new FacetIndex(products.size(),
+                appendBitmaps(brandBits, products, firstNew, Product::getBrand),
+                appendBitmaps(typeBits, products, firstNew, Product::getToothbrushType),
+                nextLive);
+    }
+
+    private static Map<String, BitSet> appendBitmaps(Map<String, BitSet> bitmaps, List<Product> products,
+                                                     int firstNew, Function<Product, String> attribute) {
+        Map<String, BitSet> next = new TreeMap<>(bitmaps);
+        Set<String> copied = new HashSet<>();
+        for (int docId = firstNew; docId < products.size(); docId++) {
+            String value = attribute.apply(products.get(docId));
+            if (value == null) continue;
+            if (copied.add(value)) {
+                BitSet bits = next.get(value);
+                next.put(value, bits == null ? new BitSet() : (BitSet) bits.clone());
+            }
+            next.get(value).set(docId);
+        }
+        return next;
+    }
+
+    private Set<String> liveValues(Map<String, BitSet> bitmaps) {
+        if (live == null) {
+            return bitmaps.keySet();
+        }
+        Set<String> values = new TreeSet<>();
+        for (Map.Entry<String, BitSet> entry : bitmaps.entrySet()) {
+            if (entry.getValue().intersects(live)) {
+                values.add(entry.getKey());
+            }
+        }
+        return values;
+    }
+
+    private static Map<String, BitSet> buildBitmaps(List<Product> products, Function<Product, String> attribute) {
+        Map<String, BitSet> bitmaps = new TreeMap<>();
+        for (int docId = 0; docId < products.size(); docId++) {
+            String value = attribute.apply(products.get(docId));
+            if (value != null) {
+                bitmaps.computeIfAbsent(value, k -> new BitSet()).set(docId);
+            }
+        }
+        return bitmaps;
+    }
+
+    private static List<String> distinctNames(Set<String> values) {
+        return Collections.unmodifiableList(values.stream()
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .distinct()
+                .sorted()
+                .collect(java.util.stream.Collectors.toList()));
+    }
+
+    public List<String> getBrandNames() {
+        return brandNames;
+    }
+
+    public List<String> getTypeNames() {
+        return typeNames;
+    }
+
+    // Live documents allowed by the brand and type filters, or null when neither filter is set
+    // and nothing has been deleted
+    public BitSet filter(List<String> brands, List<String> types) {
+        BitSet brandFilter = union(brandBits, brands);
+        BitSet typeFilter = union(typeBits, types);
+        BitSet result;
+        if (brandFilter == null) {
+            result = typeFilter;
+        } else {
+            if (typeFilter != null) {
+                brandFilter.and(typeFilter);
+            }
+            result = brandFilter;
+        }
+        if (live == null) {
+            return result;
+        }
+        if (result == null) {
+            return (BitSet) live.clone();
+        }
+        result.and(live);
+        return result;
+    }
+
+    // Per-brand and per-type hit counts within candidates. Each facet's counts apply the
+    // other facet's filter but not its own, so the sidebar shows what selecting a value would add.
+    public Map<String, Object> counts(BitSet candidates, List<String> brands, List<String> types) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("brands", countWithin(brandBits, candidates, union(typeBits, types)));
+        result.put("types", countWithin(typeBits, candidates, union(brandBits, brands)));
+        return result;
+    }
+
+    public BitSet allDocs() {
+        if (live != null) {
+            return (BitSet) live.clone();
+        }
+        BitSet all = new BitSet(docCount);
+        all.set(0, docCount);
+        return all;
+    }
+
+    private Map<String, Integer> countWithin(Map<String, BitSet> bitmaps, BitSet candidates, BitSet otherFilter) {
+        BitSet base = (BitSet) candidates.clone();
+        if (otherFilter != null) {
+            base.and(otherFilter);
+        }
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, BitSet> entry : bitmaps.entrySet()) {
+            if (entry.getKey().trim().isEmpty()) continue;
+            // A value whose documents were all deleted is gone, as in a full rebuild
+            if (live != null && !entry.getValue().intersects(live)) continue;
+            BitSet hits = (BitSet) base.clone();
+            hits.and(entry.getValue());
+            counts.put(entry.getKey(), hits.cardinality());
+        }
+        return counts;
+    }
+
+    private static BitSet union(Map<String, BitSet> bitmaps, List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        BitSet result = new BitSet();
+        for (String value : values) {
+            BitSet bits = bitmaps.get(value);
+            if (bits != null) {
+                result.or(bits);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,520 @@
+package com.toothbrush.service;
+
+import com.toothbrush.model.Product;
+import com.toothbrush.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+// Everything a request reads, built together from one catalog and never modified afterwards.
+// SearchEngineService publishes a whole snapshot with a single volatile write, so a request that
+// picked up a snapshot finishes on it even while a reload publishes the next one.
+// A product's document id is its index in the products list.
+//
+// Incremental updates produce a new snapshot that shares the base segment (the last full build)
+// and adds a small delta segment: replaced and deleted products are tombstoned and new versions
+// are appended. Edits that leave the indexed text alone (price, battery, ...) replace the product
+// in place and only touch the sort columns. The service merges the delta back into a fresh base
+// in the background once it grows.
+//
+// A base snapshot can be written out with writeTo and read back with readFrom (see
+// IndexSnapshotFile); only the structures that are cheap to derive are rebuilt on the way in.
+final class IndexSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(IndexSnapshot.class);
+    // Documents per partial trie in a full build
+    private static final int TRIE_RANGE = 2048;
+
+    final long version;
+    final List<Product> products;
+    final Vocabulary vocabulary;
+    final ProductColumns columns;
+    final FacetIndex facets;
+    final Bm25 bm25;
+    final ProductJson json;
+
+    // Base segment
+    private final int baseSize;
+    private final Vocabulary baseVocabulary;
+    private final CompletableFuture<SymSpell> spellIndex;
+    private final SuffixArray corpusIndex;
+    private final CompletableFuture<PhraseCompletions> phraseIndex;
+
+    // Pending changes on top of the base segment
+    private final BitSet deleted;
+    private final Map<String, Integer> docByUrl;
+    private final int[] docLengths;
+    private final SymSpell deltaSpellIndex;
+    private final SuffixArray deltaCorpusIndex;
+    private final List<String> deletedBaseTexts;
+    private final int touchedWords;
+    private final PhraseCompletions deltaPhraseIndex;
+    private final PhraseCompletions deletedPhraseIndex; // Names of deleted base products, subtracted
+
+    // Full build. The independent structures are built concurrently on the common fork-join
+    // pool, and the vocabulary itself from per-range partial tries that are merged in order.
+    IndexSnapshot(long version, List<Product> products, boolean compactVocabulary) {
+        this.version = version;
+        this.products = Collections.unmodifiableList(new ArrayList<>(products));
+        List<Product> docs = this.products;
+        CompletableFuture<ProductColumns> columnsTask = CompletableFuture.supplyAsync(() -> new ProductColumns(docs));
+        CompletableFuture<FacetIndex> facetsTask = CompletableFuture.supplyAsync(() -> new FacetIndex(docs));
+        CompletableFuture<ProductJson> jsonTask = CompletableFuture.supplyAsync(() -> new ProductJson(docs));
+        CompletableFuture<SuffixArray> corpusTask =
+                CompletableFuture.supplyAsync(() -> new SuffixArray(corpusTexts(docs, 0, null)));
+        CompletableFuture<PhraseCompletions> phrasesTask =
+                CompletableFuture.supplyAsync(() -> new PhraseCompletions(nameWords(docs, 0, docs.size(), null)));
+
+        docLengths = new int[docs.size()];
+        Trie trie = buildTrie(docs, docLengths).freeze(); // Read-only before any reader can see it
+        if (compactVocabulary) {
+            // Freeze the vocabulary into the array-backed CompactTrie
+            CompactTrie compact = new CompactTrie(trie);
+            log.info("Vocabulary heap footprint: Trie ~{} KB, CompactTrie ~{} KB ({} nodes)",
+                    trie.estimateHeapBytes() / 1024, compact.estimateHeapBytes() / 1024, compact.nodeCount());
+            this.vocabulary = compact;
+        } else {
+            this.vocabulary = trie;
+        }
+        Vocabulary words = vocabulary;
+        int[] lengths = docLengths;
+        CompletableFuture<Bm25> bm25Task = CompletableFuture.supplyAsync(() -> new Bm25(words, lengths));
+        this.spellIndex = CompletableFuture.completedFuture(buildSpellIndex(vocabulary));
+        this.bm25 = bm25Task.join();
+        this.columns = columnsTask.join();
+        this.facets = facetsTask.join();
+        this.json = jsonTask.join();
+        this.corpusIndex = corpusTask.join();
+        log.info("Frequency index: suffix array over {} chars, ~{} KB",
+                corpusIndex.length(), corpusIndex.estimateHeapBytes() / 1024);
+        this.phraseIndex = CompletableFuture.completedFuture(phrasesTask.join());
+        log.info("Phrase completion index: {} word pairs and triples, ~{} KB",
+                phraseIndex.join().pairCount(), phraseIndex.join().estimateHeapBytes() / 1024);
+
+        baseSize = this.products.size();
+        baseVocabulary = vocabulary;
+        deleted = new BitSet();
+        docByUrl = urlIndex(this.products);
+        deltaSpellIndex = null;
+        deltaCorpusIndex = null;
+        deletedBaseTexts = Collections.emptyList();
+        touchedWords = 0;
+        deltaPhraseIndex = null;
+        deletedPhraseIndex = null;
+    }
+
+    // Base snapshot from the parts read back by readFrom. The facet bitmaps and product JSON are
+    // rebuilt, BM25 upper bounds are computed per term on first use and the spelling and phrase
+    // completion indexes are built in the background, so the snapshot can serve searches right away.
+    private IndexSnapshot(long version, List<Product> products, CompactTrie vocabulary, int[] docLengths,
+                          ProductColumns columns, SuffixArray corpusIndex) {
+        this.version = version;
+        this.products = Collections.unmodifiableList(products);
+        this.vocabulary = vocabulary;
+        this.docLengths = docLengths;
+        this.columns = columns;
+        this.corpusIndex = corpusIndex;
+        this.facets = new FacetIndex(this.products);
+        this.json = new ProductJson(this.products);
+        this.bm25 = new Bm25(vocabulary, docLengths, false);
+        this.spellIndex = CompletableFuture.supplyAsync(() -> buildSpellIndex(vocabulary));
+        List<Product> docs = this.products;
+        this.phraseIndex = CompletableFuture.supplyAsync(
+                () -> new PhraseCompletions(nameWords(docs, 0, docs.size(), null)));
+
+        baseSize = this.products.size();
+        baseVocabulary = vocabulary;
+        deleted = new BitSet();
+        docByUrl = urlIndex(this.products);
+        deltaSpellIndex = null;
+        deltaCorpusIndex = null;
+        deletedBaseTexts = Collections.emptyList();
+        touchedWords = 0;
+        deltaPhraseIndex = null;
+        deletedPhraseIndex = null;
+    }
+
+    // Snapshot after an incremental change to prev. When only in-place edits happened the text
+    // indexes of prev are reused as they are; otherwise the delta segment is rebuilt from every
+    // live appended product, which stays small because the service merges it away.
+    private IndexSnapshot(IndexSnapshot prev, long version, List<Product> products, BitSet deleted,
+                          Map<String, Integer> docByUrl, BitSet editedInPlace) {
+        this.version = version;
+        this.products = Collections.unmodifiableList(products);
+        this.deleted = deleted;
+        this.docByUrl = docByUrl;
+        this.baseSize = prev.baseSize;
+        this.baseVocabulary = prev.baseVocabulary;
+        this.spellIndex = prev.spellIndex;
+        this.corpusIndex = prev.corpusIndex;
+        this.phraseIndex = prev.phraseIndex;
+        this.columns = prev.columns.withChanges(this.products, editedInPlace, prev.products.size());
+        this.facets = prev.facets.withChanges(this.products, prev.products.size(), deleted);
+        this.json = prev.json.withChanges(this.products, editedInPlace, prev.products.size());
+
+        if (products.size() == prev.products.size() && deleted.equals(prev.deleted)) {
+            vocabulary = prev.vocabulary;
+            bm25 = prev.bm25;
+            docLengths = prev.docLengths;
+            deltaSpellIndex = prev.deltaSpellIndex;
+            deltaCorpusIndex = prev.deltaCorpusIndex;
+            deletedBaseTexts = prev.deletedBaseTexts;
+            touchedWords = prev.touchedWords;
+            deltaPhraseIndex = prev.deltaPhraseIndex;
+            deletedPhraseIndex = prev.deletedPhraseIndex;
+            return;
+        }
+
+        Trie delta = new Trie();
+        int[] deltaLengths = indexNames(delta, this.products, baseSize, deleted);
+        delta.freeze(); // Published with the snapshot to lock-free readers
+        docLengths = Arrays.copyOf(prev.docLengths, this.products.size());
+        System.arraycopy(deltaLengths, baseSize, docLengths, baseSize, this.products.size() - baseSize);
+
+        Set<String> touched = new HashSet<>();
+        List<String> deletedTexts = new ArrayList<>();
+        for (int docId = deleted.nextSetBit(0); docId >= 0 && docId < baseSize; docId = deleted.nextSetBit(docId + 1)) {
+            Product p = this.products.get(docId);
+            for (String word : p.getName().toLowerCase().split("\\W+")) {
+                if (!word.isEmpty()) {
+                    touched.add(word);
+                }
+            }
+            deletedTexts.add(corpusText(p));
+        }
+        vocabulary = new SegmentedVocabulary(baseVocabulary, delta, deleted, touched);
+        // Tombstoned documents keep their length entry but must not count towards N or avgdl
+        long liveLength = 0;
+        for (int docId = 0; docId < docLengths.length; docId++) {
+            if (!deleted.get(docId)) {
+                liveLength += docLengths[docId];
+            }
+        }
+        bm25 = new Bm25(vocabulary, docLengths, liveCount(), liveLength, false);
+        deltaSpellIndex = buildSpellIndex(delta);
+        deltaCorpusIndex = new SuffixArray(corpusTexts(this.products, baseSize, deleted));
+        deletedBaseTexts = deletedTexts;
+        touchedWords = touched.size();
+        deltaPhraseIndex = new PhraseCompletions(nameWords(this.products, baseSize, this.products.size(), deleted));
+        BitSet live = (BitSet) deleted.clone();
+        live.flip(0, baseSize);
+        deletedPhraseIndex = new PhraseCompletions(nameWords(this.products, 0, baseSize, live));
+    }
+
+    // Applies upserts (matched on productUrl) and deletions. Fields left null in an upsert keep
+    // their current value, so a price diff only needs productUrl and price.
+    IndexSnapshot withChanges(long nextVersion, List<Product> upserts, Collection<String> deletedUrls) {
+        List<Product> next = new ArrayList<>(products);
+        BitSet nextDeleted = (BitSet) deleted.clone();
+        Map<String, Integer> nextByUrl = new HashMap<>(docByUrl);
+        BitSet editedInPlace = new BitSet();
+
+        for (String url : deletedUrls) {
+            Integer docId = nextByUrl.remove(url);
+            if (docId != null) {
+                nextDeleted.set(docId);
+            }
+        }
+        for (Product patch : upserts) {
+            if (patch.getProductUrl() == null || patch.getProductUrl().isEmpty()) {
+                throw new IllegalArgumentException("Every product needs a productUrl");
+            }
+            Integer docId = nextByUrl.get(patch.getProductUrl());
+            Product current = docId == null ? null : next.get(docId);
+            Product merged = merge(current, patch);
+            if (current != null && sameIndexedText(current, merged)) {
+                next.set(docId, merged);
+                editedInPlace.set(docId);
+                continue;
+            }
+            if (docId != null) {
+                nextDeleted.set(docId);
+            }
+            nextByUrl.put(merged.getProductUrl(), next.size());
+            next.add(merged);
+        }
+        return new IndexSnapshot(this, nextVersion, next, nextDeleted, nextByUrl, editedInPlace);
+    }
+
+    // Writes the product table, the vocabulary with its postings, the document lengths, the sort
+    // columns and the suffix array. Only a full build over a CompactTrie can be written.
+    void writeTo(DataOutput out) throws IOException {
+        if (pendingChanges() > 0 || !(vocabulary instanceof CompactTrie)) {
+            throw new IllegalStateException("Only a full build with a compact vocabulary can be written");
+        }
+        out.writeInt(products.size());
+        for (Product p : products) {
+            writeProduct(out, p);
+        }
+        ((CompactTrie) vocabulary).writeTo(out);
+        BinaryIO.writeInts(out, docLengths);
+        columns.writeTo(out);
+        corpusIndex.writeTo(out);
+    }
+
+    static IndexSnapshot readFrom(ByteBuffer in, long version) {
+        int count = in.getInt();
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(readProduct(in));
+        }
+        CompactTrie vocabulary = CompactTrie.readFrom(in);
+        int[] docLengths = BinaryIO.readInts(in);
+        ProductColumns columns = ProductColumns.readFrom(in);
+        SuffixArray corpusIndex = SuffixArray.readFrom(in);
+        return new IndexSnapshot(version, products, vocabulary, docLengths, columns, corpusIndex);
+    }
+
+    private static void writeProduct(DataOutput out, Product p) throws IOException {
+        for (String field : new String[]{p.getName(), p.getPrice(), p.getImageUrl(), p.getProductUrl(),
+                p.getBrand(), p.getReviewCount(), p.getRating(), p.getInStock(), p.getDescription(),
+                p.getBatteryLife(), p.getWaterproofRating(), p.getToothbrushType()}) {
+            BinaryIO.writeString(out, field);
+        }
+    }
+
+    private static Product readProduct(ByteBuffer in) {
+        Product p = new Product();
+        p.setName(BinaryIO.readString(in));
+        p.setPrice(BinaryIO.readString(in));
+        p.setImageUrl(BinaryIO.readString(in));
+        p.setProductUrl(BinaryIO.readString(in));
+        p.setBrand(BinaryIO.readString(in));
+        p.setReviewCount(BinaryIO.readString(in));
+        p.setRating(BinaryIO.readString(in));
+        p.setInStock(BinaryIO.readString(in));
+        p.setDescription(BinaryIO.readString(in));
+        p.setBatteryLife(BinaryIO.readString(in));
+        p.setWaterproofRating(BinaryIO.readString(in));
+        p.setToothbrushType(BinaryIO.readString(in));
+        return p;
+    }
+
+    // Appended or tombstoned documents since the last full build
+    int pendingChanges() {
+        return products.size() - baseSize + deleted.cardinality();
+    }
+
+    int liveCount() {
+        return products.size() - deleted.cardinality();
+    }
+
+    // Live products in document order, the input of the next full build
+    List<Product> liveProducts() {
+        List<Product> live = new ArrayList<>(products.size() - deleted.cardinality());
+        for (int docId = 0; docId < products.size(); docId++) {
+            if (!deleted.get(docId)) {
+                live.add(products.get(docId));
+            }
+        }
+        return live;
+    }
+
+    // Spelling candidates within distance 2: closest first, then most frequent, then alphabetical
+    List<String> suggestSpelling(String word, int limit) {
+        if (deltaSpellIndex == null) {
+            return spellIndex.join().lookup(word, limit);
+        }
+        // Words that only occurred in deleted products are dropped, so ask the base for extra
+        Set<String> candidates = new LinkedHashSet<>(spellIndex.join().lookup(word, limit + touchedWords));
+        candidates.addAll(deltaSpellIndex.lookup(word, limit));
+        Map<String, Integer> distances = new HashMap<>();
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String candidate : candidates) {
+            int frequency = vocabulary.getFrequency(candidate);
+            if (frequency > 0) {
+                distances.put(candidate, EditDistance.calculate(word, candidate, 2));
+                frequencies.put(candidate, frequency);
+            }
+        }
+        return distances.keySet().stream()
+                .sorted(Comparator.<String>comparingInt(distances::get)
+                        .thenComparingInt(w -> -frequencies.get(w))
+                        .thenComparing(Comparator.naturalOrder()))
+                .limit(limit)
+                .collect(java.util.stream.Collectors.toList());
+    }
+
+    // Up to limit words starting with prefix that directly follow context (one or two words) in
+    // live product names, ranked by the number of live names containing that run of words (then
+    // shorter, then alphabetical); limit <= 0 returns all of them
+    List<String> completePhrase(List<String> context, String prefix, int limit) {
+        if (deltaPhraseIndex == null) {
+            return phraseIndex.join().topFollowers(context, prefix, limit);
+        }
+        // Only words that follow the context in a deleted name can rank lower than in the base,
+        // so the base is asked for that many extra
+        List<String> lowered = deletedPhraseIndex.topFollowers(context, prefix, 0);
+        Set<String> candidates = new HashSet<>(lowered);
+        candidates.addAll(deltaPhraseIndex.topFollowers(context, prefix, 0));
+        candidates.addAll(phraseIndex.join().topFollowers(context, prefix, limit <= 0 ? 0 : limit + lowered.size()));
+        Map<String, Integer> counts = new HashMap<>();
+        for (String word : candidates) {
+            int count = phraseIndex.join().count(context, word) + deltaPhraseIndex.count(context, word)
+                    - deletedPhraseIndex.count(context, word);
+            if (count > 0) {
+                counts.put(word, count);
+            }
+        }
+        return counts.keySet().stream()
+                .sorted(Comparator.<String>comparingInt(word -> -counts.get(word))
+                        .thenComparingInt(String::length)
+                        .thenComparing(Comparator.naturalOrder()))
+                .limit(limit <= 0 ? Long.MAX_VALUE : limit)
+                .collect(java.util.stream.Collectors.toList());
+    }
+
+    long phraseHeapBytes() {
+        long bytes = phraseIndex.isDone() ? phraseIndex.join().estimateHeapBytes() : 0;
+        if (deltaPhraseIndex != null) {
+            bytes += deltaPhraseIndex.estimateHeapBytes() + deletedPhraseIndex.estimateHeapBytes();
+        }
+        return bytes;
+    }
+
+    long corpusHeapBytes() {
+        return corpusIndex.estimateHeapBytes() + (deltaCorpusIndex == null ? 0 : deltaCorpusIndex.estimateHeapBytes());
+    }
+
+    // Occurrences of pattern in the lowercased names and descriptions of the live products
+    int substringCount(String pattern) {
+        int count = corpusIndex.count(pattern);
+        if (deltaCorpusIndex != null) {
+            count += deltaCorpusIndex.count(pattern);
+            BoyerMoore bm = BoyerMoore.compile(pattern);
+            for (String text : deletedBaseTexts) {
+                count -= bm.countOccurrences(text);
+            }
+        }
+        return count;
+    }
+
+    // Tokenizes and indexes ranges of TRIE_RANGE documents in parallel; an ordered reduce appends
+    // each range's trie to the one before it, which only concatenates postings
+    private static Trie buildTrie(List<Product> products, int[] docLengths) {
+        int ranges = (products.size() + TRIE_RANGE - 1) / TRIE_RANGE;
+        return IntStream.range(0, ranges).parallel()
+                .mapToObj(r -> {
+                    Trie partial = new Trie();
+                    int end = Math.min(products.size(), (r + 1) * TRIE_RANGE);
+                    indexNames(partial, products, r * TRIE_RANGE, end, null, docLengths);
+                    return partial;
+                })
+                .reduce((left, right) -> {
+                    left.append(right);
+                    return left;
+                })
+                .orElseGet(Trie::new);
+    }
+
+    // Inserts the name tokens of the live products from firstDoc on; returns per-document token counts
+    private static int[] indexNames(Trie trie, List<Product> products, int firstDoc, BitSet deleted) {
+        int[] docLengths = new int[products.size()];
+        indexNames(trie, products, firstDoc, products.size(), deleted, docLengths);
+        return docLengths;
+    }
+
+    private static void indexNames(Trie trie, List<Product> products, int firstDoc, int endDoc, BitSet deleted,
+                                   int[] docLengths) {
+        for (int docId = firstDoc; docId < endDoc; docId++) {
+            if (deleted != null && deleted.get(docId)) continue;
+            // Add words from name ONLY to Trie
+            String text = products.get(docId).getName();
+            String[] words = text.toLowerCase().split("\\W+");
+            for (String word : words) {
+                if (!word.isEmpty()) {
+                    trie.insert(word, docId, docLengths[docId]++); // Build Inverted Index, with token positions
+                }
+            }
+        }
+    }
+
+    private static Map<String, Integer> urlIndex(List<Product> products) {
+        Map<String, Integer> docByUrl = new HashMap<>();
+        for (int docId = 0; docId < products.size(); docId++) {
+            docByUrl.put(products.get(docId).getProductUrl(), docId);
+        }
+        return docByUrl;
+    }
+
+    private static SymSpell buildSpellIndex(Vocabulary vocabulary) {
+        SymSpell index = new SymSpell(2);
+        for (String word : vocabulary.getAllWords()) {
+            index.add(word, vocabulary.getFrequency(word));
+        }
+        return index;
+    }
+
+    // The lowercased words of each product name in [firstDoc, endDoc), skipping the documents in skip
+    private static List<String[]> nameWords(List<Product> products, int firstDoc, int endDoc, BitSet skip) {
+        List<String[]> titles = new ArrayList<>(endDoc - firstDoc);
+        for (int docId = firstDoc; docId < endDoc; docId++) {
+            if (skip == null || !skip.get(docId)) {
+                titles.add(Arrays.stream(products.get(docId).getName().toLowerCase().split("\\W+"))
+                        .filter(word -> !word.isEmpty())
+                        .toArray(String[]::new));
+            }
+        }
+        return titles;
+    }
+
+    private static List<String> corpusTexts(List<Product> products, int firstDoc, BitSet deleted) {
+        List<String> documents = new ArrayList<>(products.size() - firstDoc);
+        for (int docId = firstDoc; docId < products.size(); docId++) {
+            if (deleted == null || !deleted.get(docId)) {
+                documents.add(corpusText(products.get(docId)));
+            }
+        }
+        return documents;
+    }
+
+    // Task 3 corpus: the lowercased name and description of a product
+    private static String corpusText(Product p) {
+        return (p.getName() + " " + p.getDescription()).toLowerCase();
+    }
+
+    private static boolean sameIndexedText(Product a, Product b) {
+        return Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && Objects.equals(a.getBrand(), b.getBrand())
+                && Objects.equals(a.getToothbrushType(), b.getToothbrushType());
+    }
+
+    // A new Product with patch's non-null fields over current's, or over the CSV loader's defaults
+    private static Product merge(Product current, Product patch) {
+        if (current == null && (patch.getName() == null || patch.getName().trim().isEmpty())) {
+            throw new IllegalArgumentException("New product " + patch.getProductUrl() + " needs a name");
+        }
+        Product base = current;
+        if (base == null) {
+            base = new Product();
+            base.setReviewCount("0");
+            base.setRating("0.0");
+            base.setInStock("Unknown");
+            base.setDescription("");
+        }
+        Product merged = new Product();
+        merged.setProductUrl(patch.getProductUrl());
+        merged.setName(pick(patch.getName(), base.getName()));
+        merged.setPrice(pick(patch.getPrice(), base.getPrice()));
+        merged.setImageUrl(pick(patch.getImageUrl(), base.getImageUrl()));
+        merged.setBrand(pick(patch.getBrand(), base.getBrand()));
+        merged.setReviewCount(pick(patch.getReviewCount(), base.getReviewCount()));
+        merged.setRating(pick(patch.getRating(), base.getRating()));
+        merged.setInStock(pick(patch.getInStock(), base.getInStock()));
+        merged.setDescription(pick(patch.getDescription(), base.getDescription()));
+        merged.setBatteryLife(pick(patch.getBatteryLife(), base.getBatteryLife()));
+        merged.setWaterproofRating(pick(patch.getWaterproofRating(), base.getWaterproofRating()));
+        merged.setToothbrushType(pick(patch.getToothbrushType(), base.getToothbrushType()));
+        return merged;
+    }
+
+    private static String pick(String value, String fallback) {
+        return value != null ? value : fallback;
+    }
+}
@@ -0,0 +1,117 @@
+package com.toothbrush.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+// Binary file holding a built base IndexSnapshot, so startup can skip parsing the CSVs and
+// building the vocabulary. Layout (big-endian):
+//
+//   int MAGIC, int FORMAT_VERSION, long source checksum,
+//   IndexSnapshot.writeTo payload,
+//   long CRC32C of everything before it
+//
+// The source checksum is a CRC32C over the catalog files' contents; a file whose checksum does
+// not match the current catalog is ignored. The file is read through a read-only memory
+// mapping, so instances on one host share its pages in the page cache. Bump FORMAT_VERSION
+// whenever the payload or the way the indexes are built (tokenizing, scoring inputs) changes.
+final class IndexSnapshotFile {
+    private static final int MAGIC = 0x54424958; // "TBIX"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+    private static final int TRAILER_BYTES = 8;
+
+    private IndexSnapshotFile() {
+    }
+
+    // Checksum over the contents of the catalog files, in order
+    static long checksum(List<Path> sources) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        for (Path source : sources) {
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+            }
+            // Separate the files so moving bytes from one to the next changes the checksum
+            crc.update(ByteBuffer.allocate(8).putLong(0, Files.size(source)));
+        }
+        return crc.getValue();
+    }
+
+    // Writes to a temporary file next to target and moves it into place, so a concurrent reader
+    // sees either the old file or the new one
+    static void write(Path target, long sourceChecksum, IndexSnapshot snapshot) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16), new CRC32C());
+            try (DataOutputStream out = new DataOutputStream(checked)) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(sourceChecksum);
+                snapshot.writeTo(out);
+                out.writeLong(checked.getChecksum().getValue());
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // The snapshot in file as the given version, or null when there is no file or it was written
+    // for other catalog contents or another format. A damaged file is an IOException.
+    static IndexSnapshot read(Path file, long sourceChecksum, long version) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            if (size < HEADER_BYTES + TRAILER_BYTES) {
+                throw new IOException(file + " is truncated");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(file + " is not an index snapshot");
+        }
+        if (buffer.getInt() != FORMAT_VERSION || buffer.getLong() != sourceChecksum) {
+            return null;
+        }
+        int payloadEnd = buffer.limit() - TRAILER_BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(0).limit(payloadEnd));
+        if (crc.getValue() != buffer.getLong(payloadEnd)) {
+            throw new IOException(file + " is damaged (checksum mismatch)");
+        }
+        try {
+            IndexSnapshot snapshot = IndexSnapshot.readFrom(buffer.limit(payloadEnd), version);
+            if (buffer.hasRemaining()) {
+                throw new IOException(file + " has " + buffer.remaining() + " unread bytes");
+            }
+            return snapshot;
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is damaged", e);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.toothbrush.service;
+
+import com.toothbrush.model.Product;
+import com.toothbrush.util.BinaryIO;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Numeric product attributes parsed once at load time and stored column-wise by document id,
+// plus one presorted permutation of all document ids per supported sort key.
+public class ProductColumns {
+
+    // Compares two document ids
+    public interface DocComparator {
+        int compare(int a, int b);
+    }
+
+    public static final List<String> SORT_KEYS = List.of(
+            "price_asc", "price_desc", "battery_asc", "battery_desc", "waterproof_asc", "waterproof_desc");
+
+    private final long[] priceCents;
+    private final int[] batteryDays;
+    private final byte[] waterproofLevel;
+    private final Map<String, int[]> presorted = new HashMap<>();
+
+    public ProductColumns(List<Product> products) {
+        int n = products.size();
+        priceCents = new long[n];
+        batteryDays = new int[n];
+        waterproofLevel = new byte[n];
+        for (int docId = 0; docId < n; docId++) {
+            Product p = products.get(docId);
+            priceCents[docId] = Math.round(parsePrice(p) * 100);
+            batteryDays[docId] = parseBatteryLife(p);
+            waterproofLevel[docId] = getWaterproofLevel(p);
+        }
+
+        // Stable sorts over catalog order, so ties keep catalog order as a List.sort would
+        for (String key : SORT_KEYS) {
+            DocComparator comparator = comparator(key);
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, comparator::compare);
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = order[i];
+            }
+            presorted.put(key, ids);
+        }
+    }
+
+    private ProductColumns(long[] priceCents, int[] batteryDays, byte[] waterproofLevel) {
+        this.priceCents = priceCents;
+        this.batteryDays = batteryDays;
+        this.waterproofLevel = waterproofLevel;
+    }
+
+    // Columns, then the permutations in SORT_KEYS order
+    void writeTo(DataOutput out) throws IOException {
+        BinaryIO.writeLongs(out, priceCents);
+        BinaryIO.writeInts(out, batteryDays);
+        BinaryIO.writeBytes(out, waterproofLevel);
+        for (String key : SORT_KEYS) {
+            BinaryIO.writeInts(out, presorted.get(key));
+        }
+    }
+
+    static ProductColumns readFrom(ByteBuffer in) {
+        ProductColumns columns = new ProductColumns(BinaryIO.readLongs(in), BinaryIO.readInts(in), BinaryIO.readBytes(in));
+        for (String key : SORT_KEYS) {
+            columns.presorted.put(key, BinaryIO.readInts(in));
+        }
+        return columns;
+    }
+
+    // Columns for products after an incremental update: documents in changed were edited in
+    // place and documents from firstNew on were appended. Only those are parsed again; each
+    // permutation drops the changed ids and merges them back in together with the new ones,
+    // O(n) per key instead of a full sort. Ties still fall back to document id order.
+    public ProductColumns withChanges(List<Product> products, BitSet changed, int firstNew) {
+        int n = products.size();
+        ProductColumns next = new ProductColumns(Arrays.copyOf(priceCents, n),
+                Arrays.copyOf(batteryDays, n), Arrays.copyOf(waterproofLevel, n));
+        List<Integer> dirty = new ArrayList<>();
+        for (int docId = changed.nextSetBit(0); docId >= 0 && docId < firstNew; docId = changed.nextSetBit(docId + 1)) {
+            dirty.add(docId);
+        }
+        for (int docId = firstNew; docId < n; docId++) {
+            dirty.add(docId);
+        }
+        for (int docId : dirty) {
+            Product p = products.get(docId);
+            next.priceCents[docId] = Math.round(parsePrice(p) * 100);
+            next.batteryDays[docId] = parseBatteryLife(p);
+            next.waterproofLevel[docId] = getWaterproofLevel(p);
+        }
+
+        for (String key : SORT_KEYS) {
+            DocComparator byKey = next.comparator(key);
+            DocComparator order = (a, b) -> {
+                int c = byKey.compare(a, b);
+                return c != 0 ? c : Integer.compare(a, b);
+            };
+            Integer[] moved = dirty.toArray(new Integer[0]);
+            Arrays.sort(moved, order::compare);
+
+            int[] old = presorted.get(key);
+            int[] ids = new int[n];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < old.length || j < moved.length) {
+                if (i < old.length && changed.get(old[i])) {
+                    i++; // Re-inserted from moved at its new position
+                } else if (j == moved.length || (i < old.length && order.compare(old[i], moved[j]) <= 0)) {
+                    ids[k++] = old[i++];
+                } else {
+                    ids[k++] = moved[j++];
+                }
+            }
+            next.presorted.put(key, ids);
+        }
+        return next;
+    }
+
+    // Comparator for one sort key, or null if the key is not supported
+    public DocComparator comparator(String sortKey) {
+        switch (sortKey) {
+            case "price_asc": return (a, b) -> Long.compare(priceCents[a], priceCents[b]);
+            case "price_desc": return (a, b) -> Long.compare(priceCents[b], priceCents[a]);
+            case "battery_asc": return (a, b) -> Integer.compare(batteryDays[a], batteryDays[b]);
+            case "battery_desc": return (a, b) -> Integer.compare(batteryDays[b], batteryDays[a]);
+            case "waterproof_asc": return (a, b) -> Byte.compare(waterproofLevel[a], waterproofLevel[b]);
+            case "waterproof_desc": return (a, b) -> Byte.compare(waterproofLevel[b], waterproofLevel[a]);
+            default: return null;
+        }
+    }
+
+    // Chains the comparators of all supported keys; null when none of them is supported
+    public DocComparator comparator(List<String> sortKeys) {
+        DocComparator chained = null;
+        for (String key : sortKeys) {
+            DocComparator current = comparator(key);
+            if (current == null) continue;
+            if (chained == null) {
+                chained = current;
+            } else {
+                DocComparator first = chained;
+                chained = (a, b) -> {
+                    int c = first.compare(a, b);
+                    return c != 0 ? c : current.compare(a, b);
+                };
+            }
+        }
+        return chained;
+    }
+
+    // All document ids ordered by the given key; callers must not modify the array
+    public int[] presorted(String sortKey) {
+        return presorted.get(sortKey);
+    }
+
+    public long getPriceCents(int docId) {
+        return priceCents[docId];
+    }
+
+    public int getBatteryDays(int docId) {
+        return batteryDays[docId];
+    }
+
+    public int getWaterproofLevel(int docId) {
+        return waterproofLevel[docId];
+    }
+
+    private static double parsePrice(Product p) {
+        try {
+            String priceStr = p.getPrice().replaceAll("[^\\d.]", "");
+            return Double.parseDouble(priceStr);
+        } catch (NumberFormatException | NullPointerException e) {
+            return 0.0;
+        }
+    }
+
+    private static int parseBatteryLife(Product p) {
+        try {
+            String batteryStr = p.getBatteryLife().trim();
+            return Integer.parseInt(batteryStr);
+        } catch (NumberFormatException | NullPointerException e) {
+            return 0;
+        }
+    }
+
+    private static byte getWaterproofLevel(Product p) {
+        String rating = p.getWaterproofRating();
+        if (rating == null) return 0;
+        rating = rating.trim().toUpperCase();
+        if (rating.contains("IPX8")) return 3;
+        if (rating.contains("IPX7")) return 2;
+        if (rating.contains("IP")) return 1;
+        return 0;
+    }
+}
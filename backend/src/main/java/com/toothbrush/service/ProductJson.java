@@ -0,0 +1,171 @@
+package com.toothbrush.service;
+
+import com.toothbrush.model.Product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.IntStream;
+
+// Every product's JSON object encoded to UTF-8 once, at index time, exactly as Jackson writes a
+// Product: members in declaration order, strings escaped the same way, nulls as null. The start of
+// each member is kept as well, so a projection (fields=) copies the chosen members' byte ranges
+// and a response is assembled from these fragments without touching the Product objects.
+final class ProductJson {
+    static final List<String> FIELDS = List.of("name", "price", "imageUrl", "productUrl", "brand",
+            "reviewCount", "rating", "inStock", "description", "batteryLife", "waterproofRating", "toothbrushType");
+    static final int ALL_FIELDS = (1 << FIELDS.size()) - 1;
+
+    private static final byte[][] MEMBER_NAMES = new byte[FIELDS.size()][];
+    static {
+        for (int f = 0; f < FIELDS.size(); f++) {
+            MEMBER_NAMES[f] = ("\"" + FIELDS.get(f) + "\":").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final byte[][] json;      // per document: {"name":...,...}
+    private final int[][] memberStart; // per document: offset of each member, then of the closing brace
+
+    ProductJson(List<Product> products) {
+        int n = products.size();
+        json = new byte[n][];
+        memberStart = new int[n][];
+        IntStream.range(0, n).parallel().forEach(docId -> encode(products.get(docId), docId));
+    }
+
+    private ProductJson(byte[][] json, int[][] memberStart) {
+        this.json = json;
+        this.memberStart = memberStart;
+    }
+
+    // Encodings after an incremental update: documents in changed were edited in place and
+    // documents from firstNew on were appended; only those are encoded again
+    ProductJson withChanges(List<Product> products, BitSet changed, int firstNew) {
+        int n = products.size();
+        ProductJson next = new ProductJson(Arrays.copyOf(json, n), Arrays.copyOf(memberStart, n));
+        for (int docId = changed.nextSetBit(0); docId >= 0 && docId < firstNew; docId = changed.nextSetBit(docId + 1)) {
+            next.encode(products.get(docId), docId);
+        }
+        for (int docId = firstNew; docId < n; docId++) {
+            next.encode(products.get(docId), docId);
+        }
+        return next;
+    }
+
+    // Bit mask of the requested fields (comma-separated values are split); unknown names are
+    // dropped, and no known field at all (fields=, fields=foo) means every field rather than
+    // items serialized as {}
+    static int fieldMask(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return ALL_FIELDS;
+        }
+        int mask = 0;
+        for (String value : fields) {
+            for (String name : value.split(",")) {
+                int f = FIELDS.indexOf(name.trim());
+                if (f >= 0) {
+                    mask |= 1 << f;
+                }
+            }
+        }
+        return mask == 0 ? ALL_FIELDS : mask;
+    }
+
+    // Encoded size of a document's object restricted to the fields in mask
+    int length(int docId, int mask) {
+        int[] starts = memberStart[docId];
+        if (mask == ALL_FIELDS) {
+            return json[docId].length;
+        }
+        int length = 2; // braces
+        int members = 0;
+        for (int f = 0; f < FIELDS.size(); f++) {
+            if ((mask & 1 << f) != 0) {
+                length += starts[f + 1] - starts[f] - 1; // without the separating comma
+                members++;
+            }
+        }
+        return length + Math.max(0, members - 1);
+    }
+
+    // Copies the object into out at pos; returns the position after it
+    int write(int docId, int mask, byte[] out, int pos) {
+        byte[] encoded = json[docId];
+        if (mask == ALL_FIELDS) {
+            System.arraycopy(encoded, 0, out, pos, encoded.length);
+            return pos + encoded.length;
+        }
+        int[] starts = memberStart[docId];
+        out[pos++] = '{';
+        boolean first = true;
+        for (int f = 0; f < FIELDS.size(); f++) {
+            if ((mask & 1 << f) != 0) {
+                if (!first) {
+                    out[pos++] = ',';
+                }
+                int length = starts[f + 1] - starts[f] - 1;
+                System.arraycopy(encoded, starts[f] + 1, out, pos, length); // skip the '{' or ','
+                pos += length;
+                first = false;
+            }
+        }
+        out[pos++] = '}';
+        return pos;
+    }
+
+    private void encode(Product p, int docId) {
+        String[] values = {p.getName(), p.getPrice(), p.getImageUrl(), p.getProductUrl(), p.getBrand(),
+                p.getReviewCount(), p.getRating(), p.getInStock(), p.getDescription(), p.getBatteryLife(),
+                p.getWaterproofRating(), p.getToothbrushType()};
+        byte[][] encodedValues = new byte[values.length][];
+        int size = 1;
+        for (int f = 0; f < values.length; f++) {
+            encodedValues[f] = values[f] == null
+                    ? "null".getBytes(StandardCharsets.US_ASCII)
+                    : quote(values[f]).getBytes(StandardCharsets.UTF_8);
+            size += 1 + MEMBER_NAMES[f].length + encodedValues[f].length;
+        }
+
+        // Each member is stored with the byte before it ('{' or ','), so every member spans
+        // [starts[f], starts[f + 1])
+        byte[] out = new byte[size];
+        int[] starts = new int[values.length + 1];
+        int pos = 0;
+        for (int f = 0; f < values.length; f++) {
+            starts[f] = pos;
+            out[pos++] = (byte) (f == 0 ? '{' : ',');
+            System.arraycopy(MEMBER_NAMES[f], 0, out, pos, MEMBER_NAMES[f].length);
+            pos += MEMBER_NAMES[f].length;
+            System.arraycopy(encodedValues[f], 0, out, pos, encodedValues[f].length);
+            pos += encodedValues[f].length;
+        }
+        starts[values.length] = pos;
+        out[pos] = '}';
+        json[docId] = out;
+        memberStart[docId] = starts;
+    }
+
+    // A JSON string literal with the escaping of Jackson's UTF-8 generator: quote, backslash,
+    // control characters, and each half of a surrogate pair (characters outside the BMP)
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\b': quoted.append("\\b"); break;
+                case '\f': quoted.append("\\f"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20 || Character.isSurrogate(c)) {
+                        quoted.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
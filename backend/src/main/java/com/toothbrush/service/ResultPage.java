@@ -0,0 +1,71 @@
+package com.toothbrush.service;
+
+import com.toothbrush.model.Product;
+import com.toothbrush.model.ProductPage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// One page of results as document ids of the snapshot they were ranked on. Java callers turn it
+// into a ProductPage; the REST layer writes it as JSON straight from the snapshot's pre-encoded
+// products, in the same shape Jackson gives a ProductPage: {"items":[...],"total":..,"page":..,"size":..}
+public final class ResultPage {
+    private static final byte[] ITEMS = "{\"items\":[".getBytes(StandardCharsets.US_ASCII);
+
+    private final IndexSnapshot index;
+    private final int[] docIds;
+    private final int total;
+    private final int page;
+    private final int size;
+
+    ResultPage(IndexSnapshot index, int[] docIds, int total, int page, int size) {
+        this.index = index;
+        this.docIds = docIds;
+        this.total = total;
+        this.page = page;
+        this.size = size;
+    }
+
+    public int getTotal() { return total; }
+    public int getPage() { return page; }
+    public int getSize() { return size; }
+
+    int itemCount() {
+        return docIds.length;
+    }
+
+    public ProductPage toProductPage() {
+        List<Product> items = new ArrayList<>(docIds.length);
+        for (int docId : docIds) {
+            items.add(index.products.get(docId));
+        }
+        return new ProductPage(items, total, page, size);
+    }
+
+    // UTF-8 JSON of the page with only the given product fields (all of them when null or empty).
+    // The exact size is computed first, so the fragments are copied into a single array.
+    public byte[] toJson(List<String> fields) {
+        int mask = ProductJson.fieldMask(fields);
+        ProductJson json = index.json;
+        byte[] tail = (",\"total\":" + total + ",\"page\":" + page + ",\"size\":" + size + "}")
+                .getBytes(StandardCharsets.US_ASCII);
+        int length = ITEMS.length + Math.max(0, docIds.length - 1) + 1 + tail.length;
+        for (int docId : docIds) {
+            length += json.length(docId, mask);
+        }
+
+        byte[] out = new byte[length];
+        System.arraycopy(ITEMS, 0, out, 0, ITEMS.length);
+        int pos = ITEMS.length;
+        for (int i = 0; i < docIds.length; i++) {
+            if (i > 0) {
+                out[pos++] = ',';
+            }
+            pos = json.write(docIds[i], mask, out, pos);
+        }
+        out[pos++] = ']';
+        System.arraycopy(tail, 0, out, pos, tail.length);
+        return out;
+    }
+}
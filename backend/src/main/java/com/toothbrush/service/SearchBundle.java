@@ -0,0 +1,26 @@
+package com.toothbrush.service;
+
+import java.util.List;
+import java.util.Map;
+
+// The parts of one search as the search page shows them (SearchEngineService.searchBundle):
+// the ranked page, the spellcheck result ({exists, suggestions}), facet counts and top searches
+public final class SearchBundle {
+    private final ResultPage results;
+    private final Map<String, Object> spelling;
+    private final Map<String, Object> facets;
+    private final List<Map.Entry<String, Long>> topSearches;
+
+    SearchBundle(ResultPage results, Map<String, Object> spelling, Map<String, Object> facets,
+                 List<Map.Entry<String, Long>> topSearches) {
+        this.results = results;
+        this.spelling = spelling;
+        this.facets = facets;
+        this.topSearches = topSearches;
+    }
+
+    public ResultPage getResults() { return results; }
+    public Map<String, Object> getSpelling() { return spelling; }
+    public Map<String, Object> getFacets() { return facets; }
+    public List<Map.Entry<String, Long>> getTopSearches() { return topSearches; }
+}
@@ -1,111 +1,428 @@
 package com.toothbrush.service;
 
-import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvValidationException;
 import com.toothbrush.model.Product;
+import com.toothbrush.model.ProductPage;
 import com.toothbrush.util.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 @Service
 public class SearchEngineService {
 
-    private List<Product> products = new ArrayList<>();
-    private Trie vocabularyTrie;
-    private Map<String, Integer> searchFrequency = new TreeMap<>(); // Red-Black Tree
-    private static final String CSV_PATH = "d:\\desk\\ACC\\Final-Project\\all_toothbrushes.csv"; // Adjust path as needed
+    private static final Logger log = LoggerFactory.getLogger(SearchEngineService.class);
+
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 100;
+
+    // The published index; every request reads this field once and works on that snapshot
+    private volatile IndexSnapshot index;
+    private final SearchPopularityTracker searchFrequency = new SearchPopularityTracker();
+
+    @Value("${catalog.path:../all_toothbrushes.csv,../all_toothbrushes1.csv}")
+    private String catalogPath = "../all_toothbrushes.csv,../all_toothbrushes1.csv";
+
+    // Binary copy of the last full build from the catalog (IndexSnapshotFile); empty disables it
+    @Value("${catalog.snapshot:index.snapshot}")
+    private String snapshotPath = "index.snapshot";
+
+    // Reload automatically when the catalog file changes
+    @Value("${catalog.watch:false}")
+    private boolean watchCatalog;
+    private CatalogWatcher watcher;
+
+    // Pending incremental changes (appended + deleted products) that trigger a background merge
+    @Value("${catalog.merge-threshold:64}")
+    private int mergeThreshold = 64;
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "index-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+
+    // Threads running the parts of a search bundle; when they and the queue are busy the
+    // requesting thread runs a part itself
+    @Value("${search.bundle.threads:4}")
+    private int bundleThreads = 4;
+    private ThreadPoolExecutor bundleExecutor;
+
+    // Document-id shards a large query is ranked in, in parallel (scatter-gather); 1 ranks every
+    // query on the requesting thread over the whole index
+    @Value("${search.shards:1}")
+    private int shards = 1;
+    private ForkJoinPool shardPool;
+    private static final int MIN_SHARDED_CANDIDATES = 2048;
+    // Share of the exact-phrase bonus for query words that are adjacent but out of order
+    private static final double PROXIMITY_WEIGHT = 0.5;
+
+    // Total weight (products or strings held) of the cached results
+    @Value("${search.cache.max-weight:50000}")
+    private long cacheMaxWeight = 50_000;
+    private LruCache<List<Object>, Object> resultCache;
+
+    // Freeze the vocabulary into the array-backed CompactTrie once it is built
+    @Value("${search.vocabulary.compact:true}")
+    private boolean compactVocabulary = true;
+
+    // Actuator's registry; a private one when running without Spring
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    private SearchMetrics metrics;
+
+    // Configuration when running without Spring (benchmarks, tests); call before init()
+    public void setCatalogPath(String catalogPath) {
+        this.catalogPath = catalogPath;
+    }
+
+    // Empty disables the snapshot file
+    public void setSnapshotPath(String snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    // 0 disables the result cache
+    public void setCacheMaxWeight(long cacheMaxWeight) {
+        this.cacheMaxWeight = cacheMaxWeight;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public void setMergeThreshold(int mergeThreshold) {
+        this.mergeThreshold = mergeThreshold;
+    }
 
     @PostConstruct
     public void init() {
-        vocabularyTrie = new Trie();
-        loadProducts();
-        buildVocabulary();
-    }
-
-    private void loadProducts() {
-        try (CSVReader reader = new CSVReader(new java.io.InputStreamReader(new java.io.FileInputStream(CSV_PATH), java.nio.charset.StandardCharsets.UTF_8))) {
-            String[] line;
-            reader.readNext(); // Skip header
-            while ((line = reader.readNext()) != null) {
-                if (line.length < 8) {
-                    continue; // Skip lines that don't have enough columns
-                }
-                Product product = new Product();
-                // CSV Format: Brand, Title, Price, Image URL, Product URL, Battery_Life, Waterproof_Rating, Toothbrush_Type
-                product.setBrand(line[0]);
-                product.setName(line[1]);
-                product.setPrice(line[2]);
-                product.setImageUrl(line[3]);
-                product.setProductUrl(line[4]);
-                product.setBatteryLife(line[5]);
-                product.setWaterproofRating(line[6]);
-                product.setToothbrushType(line[7]);
-                
-                // Default values for missing fields
-                product.setReviewCount("0");
-                product.setRating("0.0");
-                product.setInStock("Unknown");
-                product.setDescription(""); // Empty description to avoid nulls
+        resultCache = new LruCache<>(cacheMaxWeight, SearchEngineService::cacheWeight);
+        metrics = new SearchMetrics(meterRegistry != null ? meterRegistry : new SimpleMeterRegistry());
+        bundleExecutor = new ThreadPoolExecutor(bundleThreads, bundleThreads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(bundleThreads * 16), new ThreadFactory() {
+                    private int count;
 
-                products.add(product);
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "search-bundle-" + ++count);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        bundleExecutor.allowCoreThreadTimeOut(true);
+        if (shards > 1) {
+            shardPool = new ForkJoinPool(shards - 1, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("search-shard-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        Long checksum = catalogChecksum();
+        index = readSnapshotFile(checksum);
+        if (index == null) {
+            List<Product> products = new ArrayList<>();
+            try {
+                products = CatalogLoader.load(catalogSources());
+            } catch (IOException | CsvValidationException e) {
+                log.error("Could not load catalog {}", catalogPath, e);
             }
-        } catch (IOException | CsvValidationException e) {
-            e.printStackTrace();
-            // Fallback or error handling
+            index = new IndexSnapshot(1, products, compactVocabulary);
+            writeSnapshotFile(checksum, index);
+        }
+        metrics.bind(() -> index, resultCache);
+        if (watchCatalog) {
+            watcher = new CatalogWatcher(catalogSources(), this::reloadQuietly);
+            watcher.start();
         }
     }
 
-    private void buildVocabulary() {
-        for (Product p : products) {
-            // Add words from name ONLY to Trie
-            String text = p.getName();
-            String[] words = text.toLowerCase().split("\\W+");
-            for (String word : words) {
-                if (!word.isEmpty()) {
-                    vocabularyTrie.insert(word, p); // Build Inverted Index
-                }
+    @PreDestroy
+    public void shutdown() {
+        if (watcher != null) {
+            watcher.close();
+        }
+        merger.shutdownNow();
+        bundleExecutor.shutdownNow();
+        if (shardPool != null) {
+            shardPool.shutdownNow();
+        }
+    }
+
+    // Rebuilds every index from the catalog files off to the side and publishes it in one write.
+    // Requests already running keep the snapshot they started with; a failed or empty load
+    // leaves the current snapshot in place. Returns the published snapshot's version.
+    public synchronized long reload() throws IOException, CsvValidationException {
+        // Taken before loading, so a file changing in between leaves a stale checksum, not a wrong one
+        Long checksum = catalogChecksum();
+        List<Product> products = CatalogLoader.load(catalogSources());
+        if (products.isEmpty()) {
+            throw new IOException("Catalog " + catalogPath + " has no products");
+        }
+        IndexSnapshot next = new IndexSnapshot(index.version + 1, products, compactVocabulary);
+        publish(next);
+        log.info("Catalog reloaded: {} products, index version {}", products.size(), next.version);
+        writeSnapshotFile(checksum, next);
+        return next.version;
+    }
+
+    // Checksum of the catalog files for the snapshot file; null when there is no snapshot file
+    // to check or the catalog cannot be read
+    private Long catalogChecksum() {
+        if (snapshotPath.trim().isEmpty() || !compactVocabulary) {
+            return null;
+        }
+        try {
+            return IndexSnapshotFile.checksum(catalogSources());
+        } catch (IOException e) {
+            log.warn("Cannot checksum catalog {}", catalogPath, e);
+            return null;
+        }
+    }
+
+    // Version 1 snapshot from the snapshot file if it was written for the current catalog
+    private IndexSnapshot readSnapshotFile(Long checksum) {
+        if (checksum == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            IndexSnapshot loaded = IndexSnapshotFile.read(Paths.get(snapshotPath.trim()), checksum, 1);
+            if (loaded == null) {
+                log.info("No index snapshot for the current catalog at {}, building from CSV", snapshotPath);
+            } else {
+                log.info("Loaded {} products from index snapshot {} in {} ms", loaded.products.size(),
+                        snapshotPath, (System.nanoTime() - start) / 1_000_000);
+            }
+            return loaded;
+        } catch (IOException e) {
+            log.warn("Ignoring index snapshot {}", snapshotPath, e);
+            return null;
+        }
+    }
+
+    // Only full builds straight from the catalog are written, never merged incremental changes,
+    // so the file always matches the CSVs its checksum was taken from
+    private void writeSnapshotFile(Long checksum, IndexSnapshot snapshot) {
+        if (checksum == null || snapshot.products.isEmpty()) {
+            return;
+        }
+        try {
+            IndexSnapshotFile.write(Paths.get(snapshotPath.trim()), checksum, snapshot);
+        } catch (IOException e) {
+            // On Windows this happens while the previous file is still mapped
+            log.warn("Could not write index snapshot {}", snapshotPath, e);
+        }
+    }
+
+    // Inserts or updates products matched on productUrl; null fields keep their current value.
+    // Returns the version of the published snapshot.
+    public synchronized long upsertProducts(List<Product> products) {
+        return publishChanges(products, Collections.emptyList());
+    }
+
+    public synchronized long deleteProducts(List<String> productUrls) {
+        return publishChanges(Collections.emptyList(), productUrls);
+    }
+
+    private long publishChanges(List<Product> upserts, List<String> deletedUrls) {
+        IndexSnapshot next = index.withChanges(index.version + 1, upserts, deletedUrls);
+        publish(next);
+        if (next.pendingChanges() >= mergeThreshold && mergeScheduled.compareAndSet(false, true)) {
+            merger.execute(this::mergePending);
+        }
+        return next.version;
+    }
+
+    // Folds the delta segment and tombstones into a fresh full build. Updates wait for it,
+    // searches keep running on the current snapshot.
+    private synchronized void mergePending() {
+        mergeScheduled.set(false);
+        IndexSnapshot current = index;
+        if (current.pendingChanges() == 0) {
+            return;
+        }
+        IndexSnapshot merged = new IndexSnapshot(current.version + 1, current.liveProducts(), compactVocabulary);
+        publish(merged);
+        log.info("Merged {} pending changes, index version {}", current.pendingChanges(), merged.version);
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (IOException | CsvValidationException | RuntimeException e) {
+            log.warn("Catalog reload failed, keeping index version {}", index.version, e);
+        }
+    }
+
+    // Swaps in next for every later request
+    void publish(IndexSnapshot next) {
+        index = next;
+        resultCache.clear(); // Entries of the old version can no longer be hit
+    }
+
+    // The published snapshot
+    IndexSnapshot snapshot() {
+        return index;
+    }
+
+    public long getIndexVersion() {
+        return index.version;
+    }
+
+    public int getProductCount() {
+        return index.liveCount();
+    }
+
+    // catalog.path is a comma-separated list of CSV files
+    private List<Path> catalogSources() {
+        List<Path> sources = new ArrayList<>();
+        for (String path : catalogPath.split(",")) {
+            if (!path.trim().isEmpty()) {
+                sources.add(Paths.get(path.trim()));
             }
         }
+        return sources;
     }
 
     public List<String> getAllBrands() {
-        return products.stream()
-                .map(Product::getBrand)
-                .filter(Objects::nonNull)
-                .map(String::trim)
-                .filter(s -> !s.isEmpty())
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+        return index.facets.getBrandNames();
     }
 
     public List<String> getAllToothbrushTypes() {
-        return products.stream()
-                .map(Product::getToothbrushType)
-                .filter(Objects::nonNull)
-                .map(String::trim)
-                .filter(s -> !s.isEmpty())
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+        return index.facets.getTypeNames();
+    }
+
+    // Brand / type hit counts for the current query (whole catalog when the query is blank)
+    public Map<String, Object> getFacetCounts(String query, List<String> brands, List<String> types, int fuzzy) {
+        SearchMetrics.Trace trace = metrics.trace("facets", null);
+        IndexSnapshot idx = index;
+        FacetIndex facets = idx.facets;
+        BitSet candidates;
+        if (query == null || query.trim().isEmpty()) {
+            candidates = facets.allDocs();
+        } else {
+            candidates = new BitSet(idx.products.size());
+            ResolvedQuery resolved = new ResolvedQuery(idx, query, Math.max(0, Math.min(fuzzy, 2)));
+            resolved.intersect();
+            for (int docId : resolved.candidates) {
+                candidates.set(docId);
+            }
+        }
+        Map<String, Object> result = facetCounts(idx, candidates, brands, types);
+        trace.finish();
+        return result;
+    }
+
+    // Counts per brand and type among candidates, plus the number passing the filters; candidates is modified
+    private static Map<String, Object> facetCounts(IndexSnapshot idx, BitSet candidates, List<String> brands,
+                                                   List<String> types) {
+        Map<String, Object> result = idx.facets.counts(candidates, brands, types);
+        BitSet allowed = idx.facets.filter(brands, types);
+        if (allowed != null) {
+            candidates.and(allowed);
+        }
+        result.put("total", candidates.cardinality());
+        return result;
+    }
+
+    public ProductPage getAllProducts(List<String> sort, List<String> brands, List<String> types, int page, int size) {
+        return listPage(sort, brands, types, page, size, null).toProductPage();
+    }
+
+    // The page as document ids, which the REST layer writes from pre-encoded JSON. timing, when
+    // not null, receives this call's per-stage breakdown (debug=timing).
+    public ResultPage listPage(List<String> sort, List<String> brands, List<String> types, int page, int size,
+                               Map<String, Object> timing) {
+        IndexSnapshot idx = index;
+        SearchMetrics.Trace trace = metrics.trace("products", timing);
+        ResultPage result = cached(idx, trace, () -> listProducts(idx, trace, sort, brands, types, page, size),
+                sortList(sort), filterSet(brands), filterSet(types), Math.max(page, 1), clampPageSize(size));
+        trace.finish();
+        return result;
     }
 
-    public List<Product> getAllProducts(List<String> sort, List<String> brands, List<String> types) {
-        List<Product> all = products.stream()
-                .filter(p -> brands == null || brands.isEmpty() || brands.contains(p.getBrand()))
-                .filter(p -> types == null || types.isEmpty() || types.contains(p.getToothbrushType()))
-                .collect(Collectors.toList());
+    private ResultPage listProducts(IndexSnapshot idx, SearchMetrics.Trace trace, List<String> sort,
+                                     List<String> brands, List<String> types, int page, int size) {
+        List<Product> products = idx.products;
+        ProductColumns columns = idx.columns;
+        page = Math.max(page, 1);
+        size = clampPageSize(size);
+        long offset = (long) (page - 1) * size;
+
+        List<String> sortKeys = parseSortKeys(sort);
+        sortKeys.retainAll(ProductColumns.SORT_KEYS);
+        BitSet allowed = idx.facets.filter(brands, types);
+        int total = allowed == null ? products.size() : allowed.cardinality();
+        trace.stage("filter");
+
+        if (offset >= total) {
+            return new ResultPage(idx, new int[0], total, page, size);
+        }
+        int[] items = new int[(int) Math.min(size, total - offset)];
+        int count = 0;
 
-        applySorting(all, sort);
-        return all;
+        if (sortKeys.size() <= 1) {
+            // Catalog order or a single presorted permutation: a filtered walk that stops after the page
+            int[] order = sortKeys.isEmpty() ? null : columns.presorted(sortKeys.get(0));
+            long seen = 0;
+            for (int i = 0; i < products.size() && count < items.length; i++) {
+                int docId = order == null ? i : order[i];
+                if (allowed != null && !allowed.get(docId)) continue;
+                if (seen++ >= offset) {
+                    items[count++] = docId;
+                }
+            }
+        } else {
+            int[] matching = new int[total];
+            int matched = 0;
+            for (int docId = 0; docId < products.size(); docId++) {
+                if (allowed == null || allowed.get(docId)) {
+                    matching[matched++] = docId;
+                }
+            }
+            ProductColumns.DocComparator byKeys = columns.comparator(sortKeys);
+            ProductColumns.DocComparator order = (a, b) -> {
+                int c = byKeys.compare(a, b);
+                return c != 0 ? c : Integer.compare(a, b);
+            };
+            int[] top = selectTop(matching, matched, order, (int) offset + size);
+            for (int i = (int) offset; i < top.length; i++) {
+                items[count++] = top[i];
+            }
+        }
+        trace.stage("sort");
+        return new ResultPage(idx, items, total, page, size);
     }
 
     // Task 1: Spell Checking
     public Map<String, Object> checkSpelling(String query) {
+        IndexSnapshot idx = index;
+        SearchMetrics.Trace trace = metrics.trace("spellcheck", null);
+        Map<String, Object> result = spelling(idx, trace, query);
+        trace.finish();
+        return result;
+    }
+
+    private Map<String, Object> spelling(IndexSnapshot idx, SearchMetrics.Trace trace, String query) {
+        return cached(idx, trace, () -> suggestSpelling(idx, trace, query), query.toLowerCase());
+    }
+
+    private Map<String, Object> suggestSpelling(IndexSnapshot idx, SearchMetrics.Trace trace, String query) {
+        Vocabulary vocabularyTrie = idx.vocabulary;
         Map<String, Object> result = new HashMap<>();
         String lowerQuery = query.toLowerCase();
         String[] words = lowerQuery.split("\\W+");
@@ -118,10 +435,10 @@ public class SearchEngineService {
             }
         }
         result.put("exists", allExist);
+        trace.stage("lookup");
 
         if (!allExist) {
             List<String> suggestions = new ArrayList<>();
-            List<String> allVocabulary = vocabularyTrie.findWordsWithPrefix("");
 
             if (words.length > 1) {
                 // Phrase suggestion logic with validation
@@ -132,15 +449,9 @@ public class SearchEngineService {
                     if (vocabularyTrie.search(w)) {
                         allCandidates.add(Collections.singletonList(w));
                     } else {
-                        String finalW = w;
-                        List<String> candidates = allVocabulary.stream()
-                            .map(dictWord -> new AbstractMap.SimpleEntry<>(dictWord, EditDistance.calculate(finalW, dictWord)))
-                            .filter(e -> e.getValue() <= 2)
-                            .sorted(Map.Entry.comparingByValue())
-                            .limit(3) // Top 3 candidates
-                            .map(Map.Entry::getKey)
-                            .collect(Collectors.toList());
-                        
+                        List<String> candidates = new ArrayList<>(idx.suggestSpelling(w, 3)); // Top 3 candidates
+                        trace.spellCandidates(candidates);
+
                         if (candidates.isEmpty()) {
                             candidates.add(w); // Keep original if no correction found
                         }
@@ -148,22 +459,20 @@ public class SearchEngineService {
                     }
                 }
                 
+                trace.stage("candidates");
+
                 List<String> validPhrases = new ArrayList<>();
-                generateCombinations(allCandidates, 0, "", validPhrases);
+                generateCombinations(idx, trace, allCandidates, 0, "", validPhrases);
+                trace.stage("phrases");
                 
                 if (!validPhrases.isEmpty()) {
                     suggestions.add(validPhrases.get(0));  // Keep only the first valid suggestion
                 }
             } else {
                 // Single word suggestion
-                String finalWord = lowerQuery;
-                suggestions = allVocabulary.stream()
-                    .map(w -> new AbstractMap.SimpleEntry<>(w, EditDistance.calculate(finalWord, w)))
-                    .filter(entry -> entry.getValue() <= 2)
-                    .sorted(Map.Entry.comparingByValue())
-                    .limit(5)  // Top 5 candidates
-                    .map(Map.Entry::getKey)
-                    .collect(Collectors.toList());
+                suggestions = idx.suggestSpelling(lowerQuery, 5);  // Top 5 candidates
+                trace.spellCandidates(suggestions);
+                trace.stage("candidates");
             }
             
             result.put("suggestions", suggestions);
@@ -171,247 +480,764 @@ public class SearchEngineService {
         return result;
     }
 
-    private void generateCombinations(List<List<String>> lists, int depth, String current, List<String> result) {
+    private void generateCombinations(IndexSnapshot idx, SearchMetrics.Trace trace, List<List<String>> lists,
+                                      int depth, String current, List<String> result) {
         if (!result.isEmpty()) return; // Found one, stop (Greedy + Pruning)
 
         if (depth == lists.size()) {
-            if (hasMatches(current.trim())) {
+            trace.spellPhrase();
+            if (hasMatches(idx, current.trim())) {
                 result.add(current.trim());
             }
             return;
         }
 
         for (String word : lists.get(depth)) {
-            generateCombinations(lists, depth + 1, current + " " + word, result);
+            generateCombinations(idx, trace, lists, depth + 1, current + " " + word, result);
         }
     }
 
-    private boolean hasMatches(String query) {
-        String[] words = query.toLowerCase().split("\\W+");
-        Set<Product> candidateSet = new HashSet<>();
-        boolean firstWord = true;
+    private boolean hasMatches(IndexSnapshot idx, String query) {
+        return matchAll(idx, query.toLowerCase().split("\\W+"), 0).length > 0;
+    }
 
+    // Inverted index lookup + AND: ids of the products whose names contain every word.
+    // Posting lists are intersected smallest-first and the loop stops at the first empty result.
+    private int[] matchAll(IndexSnapshot idx, String[] words, int maxDistance) {
+        Vocabulary vocabularyTrie = idx.vocabulary;
+        List<int[]> lists = new ArrayList<>();
         for (String word : words) {
             if (word.isEmpty()) continue;
-            
-            List<Object> wordRefs = vocabularyTrie.searchReferences(word);
-            Set<Product> wordProducts = new HashSet<>();
-            for (Object obj : wordRefs) {
-                if (obj instanceof Product) {
-                    wordProducts.add((Product) obj);
-                }
+
+            int[] postings = maxDistance > 0
+                    ? vocabularyTrie.searchPostingsFuzzy(word, maxDistance)
+                    : vocabularyTrie.searchPostings(word);
+            if (postings.length == 0) {
+                return PostingList.EMPTY; // No products contain all words
+            }
+            lists.add(postings);
+        }
+        return PostingList.intersectAll(lists);
+    }
+
+    // Task 2: Word Completion
+    // Returns the limit most frequent completions; limit <= 0 returns every word under the prefix.
+    // When words come before the one being typed ("pro 2.0 so", or "sonic " for the next word)
+    // the completions are whole phrases: the typed text with the last word completed.
+    public List<String> autocomplete(String prefix, int limit) {
+        IndexSnapshot idx = index;
+        SearchMetrics.Trace trace = metrics.trace("autocomplete", null);
+        List<String> result = cached(idx, trace, () -> complete(idx, prefix, limit), prefix.toLowerCase(),
+                Math.max(limit, 0));
+        trace.finish();
+        return result;
+    }
+
+    private List<String> complete(IndexSnapshot idx, String prefix, int limit) {
+        String lowerPrefix = prefix.toLowerCase();
+        int wordStart = lowerPrefix.length();
+        while (wordStart > 0 && isWordChar(lowerPrefix.charAt(wordStart - 1))) {
+            wordStart--;
+        }
+        String head = lowerPrefix.substring(0, wordStart);
+        List<String> context = new ArrayList<>();
+        for (String word : head.split("\\W+")) {
+            if (!word.isEmpty()) {
+                context.add(word);
             }
+        }
+        if (context.isEmpty()) {
+            Vocabulary vocabularyTrie = idx.vocabulary;
+            if (limit <= 0) {
+                return vocabularyTrie.findWordsWithPrefix(lowerPrefix);
+            }
+            return vocabularyTrie.topCompletions(lowerPrefix, limit);
+        }
+        return completePhrase(idx, head, context, lowerPrefix.substring(wordStart), limit);
+    }
 
-            if (firstWord) {
-                candidateSet.addAll(wordProducts);
-                firstWord = false;
-            } else {
-                candidateSet.retainAll(wordProducts);  // Intersection
+    // Next words after the context from the phrase index, most products first (then shorter, then
+    // alphabetical). The last two context words are matched as a run, backing off to the last one
+    // when that run never occurs; whenever words were left out, a completion is kept only if some
+    // product name has every word of the phrase, so each completion has at least one hit.
+    private List<String> completePhrase(IndexSnapshot idx, String head, List<String> context, String partial,
+                                        int limit) {
+        int used = Math.min(context.size(), PhraseCompletions.MAX_CONTEXT);
+        List<String> words = idx.completePhrase(context.subList(context.size() - used, context.size()), partial, limit);
+        if (words.isEmpty() && used > 1) {
+            used = 1;
+            words = idx.completePhrase(context.subList(context.size() - 1, context.size()), partial, limit);
+        }
+        List<String> completions = new ArrayList<>();
+        if (used == context.size()) {
+            for (String word : words) {
+                completions.add(head + word);
             }
+            return completions;
+        }
 
-            if (candidateSet.isEmpty()) {
-                return false;
+        // Verified: fetch more candidates while too many are dropped
+        List<String> tail = context.subList(context.size() - used, context.size());
+        String[] phrase = context.toArray(new String[context.size() + 1]);
+        int checked = 0;
+        int fetch = limit;
+        while (true) {
+            for (; checked < words.size() && (limit <= 0 || completions.size() < limit); checked++) {
+                phrase[context.size()] = words.get(checked);
+                if (matchAll(idx, phrase, 0).length > 0) {
+                    completions.add(head + words.get(checked));
+                }
+            }
+            if (limit <= 0 || completions.size() >= limit || words.size() < fetch) {
+                return completions;
             }
+            fetch *= 4;
+            words = idx.completePhrase(tail, partial, fetch);
         }
-        return !candidateSet.isEmpty();
     }
 
-    // Task 2: Word Completion
-    public List<String> autocomplete(String prefix) {
-        return vocabularyTrie.findWordsWithPrefix(prefix.toLowerCase());
+    // The characters split("\\W+") keeps: ASCII letters, digits and '_'
+    private static boolean isWordChar(char c) {
+        return c < 128 && (Character.isLetterOrDigit(c) || c == '_');
     }
 
-    // Task 3: Frequency Count (using Boyer-Moore)
+    // Task 3: Frequency Count (using a suffix array)
+    // Occurrences of word as a substring of the lowercased names and descriptions,
+    // answered from the suffix array instead of rescanning the catalog
     public int getWordFrequency(String word) {
-        int count = 0;
-        BoyerMoore bm = new BoyerMoore(word.toLowerCase());
-        for (Product p : products) {
-            String text = (p.getName() + " " + p.getDescription()).toLowerCase();
-            count += bm.countOccurrences(text);
-        }
+        SearchMetrics.Trace trace = metrics.trace("frequency", null);
+        int count = index.substringCount(word.toLowerCase());
+        trace.finish();
+        return count;
+    }
+
+    // Whole-word occurrences in product names, straight from the vocabulary's term counts
+    public int getTokenFrequency(String word) {
+        SearchMetrics.Trace trace = metrics.trace("token-frequency", null);
+        int count = index.vocabulary.getFrequency(word.toLowerCase());
+        trace.finish();
         return count;
     }
 
     // Task 4: Search Frequency
     public void trackSearch(String query) {
-        searchFrequency.put(query, searchFrequency.getOrDefault(query, 0) + 1);
+        searchFrequency.record(query);
     }
 
-    public List<Map.Entry<String, Integer>> getTopSearches() {
-        return searchFrequency.entrySet().stream()
-                .sorted((e1, e2) -> e2.getValue().compareTo(e1.getValue()))
-                .limit(10)
-                .collect(Collectors.toList());
+    public List<Map.Entry<String, Long>> getTopSearches(SearchPopularityTracker.Window window) {
+        return searchFrequency.top(window, 10);
     }
 
     // Task 5 & 6: Page Ranking & Inverted Indexing
-    public List<Product> searchProducts(String keyword, List<String> sort, List<String> brands, List<String> types) {
-        trackSearch(keyword);
-        String lowerKeyword = keyword.toLowerCase();
-        String[] searchWords = lowerKeyword.split("\\W+"); // Split query into words
+    // fuzzy > 0 enables typo-tolerant matching: each query word also matches indexed words
+    // within that edit distance (capped at 2), and their postings are merged into the candidates.
+    public ProductPage searchProducts(String keyword, List<String> sort, List<String> brands, List<String> types,
+                                      int fuzzy, int page, int pageSize) {
+        return searchPage(keyword, sort, brands, types, fuzzy, page, pageSize, null).toProductPage();
+    }
+
+    // The page as document ids, which the REST layer writes from pre-encoded JSON. timing, when
+    // not null, receives this call's per-stage breakdown (debug=timing).
+    public ResultPage searchPage(String keyword, List<String> sort, List<String> brands, List<String> types,
+                                 int fuzzy, int page, int pageSize, Map<String, Object> timing) {
+        SearchMetrics.Trace trace = metrics.trace("search", timing);
+        if (page <= 1) {
+            trackSearch(keyword); // Turning pages is not a new search; cache hits still count
+        }
+        IndexSnapshot idx = index;
+        ResultPage result = cached(idx, trace,
+                () -> rankProducts(idx, trace, resolve(idx, trace, keyword, fuzzy, false), sort, brands, types, page, pageSize),
+                searchKey(keyword, sort, brands, types, fuzzy, page, pageSize));
+        trace.finish();
+        return result;
+    }
 
-        Set<Product> candidateSet = new HashSet<>();
-        boolean firstWord = true;
+    // Everything the search page shows for one query in a single call: the ranked page, spelling
+    // suggestions, facet counts and the top searches. The query is split and looked up in the
+    // vocabulary once, then ranking, facet counting and spellcheck run in parallel on the bundle
+    // executor. Spellcheck is skipped when every word is an indexed word. Ranked pages and
+    // spellchecks share the cache entries of searchPage and checkSpelling.
+    public SearchBundle searchBundle(String keyword, List<String> sort, List<String> brands, List<String> types,
+                                     int fuzzy, int page, int pageSize) {
+        SearchMetrics.Trace trace = metrics.trace("bundle", null);
+        if (page <= 1) {
+            trackSearch(keyword);
+        }
+        IndexSnapshot idx = index;
+        ResolvedQuery query = resolve(idx, trace, keyword, fuzzy, true); // Facets count every candidate
 
-        // 1. Retrieve candidates for each word and find intersection (AND logic)
-        for (String word : searchWords) {
-            if (word.isEmpty()) continue;
-            
-            List<Object> wordRefs = vocabularyTrie.searchReferences(word);
-            Set<Product> wordProducts = new HashSet<>();
-            for (Object obj : wordRefs) {
-                if (obj instanceof Product) {
-                    wordProducts.add((Product) obj);
+        CompletableFuture<ResultPage> results = CompletableFuture.supplyAsync(() -> {
+            SearchMetrics.Trace search = metrics.trace("search", null);
+            ResultPage result = cached(idx, search,
+                    () -> rankProducts(idx, search, query, sort, brands, types, page, pageSize),
+                    searchKey(keyword, sort, brands, types, fuzzy, page, pageSize));
+            search.finish();
+            return result;
+        }, bundleExecutor);
+        CompletableFuture<Map<String, Object>> facets = CompletableFuture.supplyAsync(() -> {
+            SearchMetrics.Trace counts = metrics.trace("facets", null);
+            BitSet candidates;
+            if (query.terms.isEmpty() && query.complete) {
+                candidates = idx.facets.allDocs(); // Blank query: the whole catalog
+            } else {
+                candidates = new BitSet(idx.products.size());
+                for (int docId : query.candidates) {
+                    candidates.set(docId);
                 }
             }
+            Map<String, Object> result = facetCounts(idx, candidates, brands, types);
+            counts.finish();
+            return result;
+        }, bundleExecutor);
+        CompletableFuture<Map<String, Object>> spelling;
+        if (query.allIndexed) {
+            Map<String, Object> exists = new HashMap<>();
+            exists.put("exists", true);
+            spelling = CompletableFuture.completedFuture(exists);
+        } else {
+            spelling = CompletableFuture.supplyAsync(() -> {
+                SearchMetrics.Trace spell = metrics.trace("spellcheck", null);
+                Map<String, Object> result = spelling(idx, spell, keyword);
+                spell.finish();
+                return result;
+            }, bundleExecutor);
+        }
+        List<Map.Entry<String, Long>> topSearches = getTopSearches(SearchPopularityTracker.Window.ALL);
 
-            if (firstWord) {
-                candidateSet.addAll(wordProducts);
-                firstWord = false;
-            } else {
-                candidateSet.retainAll(wordProducts); // Intersection
+        SearchBundle bundle = new SearchBundle(results.join(), spelling.join(), facets.join(), topSearches);
+        trace.finish();
+        return bundle;
+    }
+
+    // Cache key arguments of a ranked page, normalized as its computation normalizes them
+    private static Object[] searchKey(String keyword, List<String> sort, List<String> brands, List<String> types,
+                                      int fuzzy, int page, int pageSize) {
+        return new Object[] {keyword.toLowerCase(), sortList(sort), filterSet(brands), filterSet(types),
+                Math.max(0, Math.min(fuzzy, 2)), Math.max(page, 1), clampPageSize(pageSize)};
+    }
+
+    // A query split into words, each looked up in the vocabulary once (with its fuzzy matches),
+    // and the ids of the documents matching every word. Words in double quotes ("sonic electric")
+    // must also appear next to each other, in that order. Lookup stops at the first word that
+    // matches nothing; candidates is then empty.
+    private static final class ResolvedQuery {
+        final List<QueryTerm> terms = new ArrayList<>(); // in query order
+        final List<int[]> phrases = new ArrayList<>();   // quoted runs of terms: [from, to)
+        final boolean complete;       // every word matched some document
+        final boolean allIndexed;     // every word is itself in the vocabulary
+        int[] candidates = PostingList.EMPTY;
+        boolean intersected;
+
+        ResolvedQuery(IndexSnapshot idx, String keyword, int maxDistance) {
+            // Odd parts are inside quotes; an unclosed quote is ignored
+            String[] parts = keyword.toLowerCase().split("\"", -1);
+            boolean matched = true;
+            boolean indexed = true;
+            for (int p = 0; p < parts.length && matched; p++) {
+                int first = terms.size();
+                for (String word : parts[p].split("\\W+")) {
+                    if (word.isEmpty()) continue;
+                    QueryTerm term = new QueryTerm(idx, word, maxDistance);
+                    indexed &= term.indexed;
+                    if (term.docIds.length == 0) {
+                        matched = false; // No products contain all words
+                        break;
+                    }
+                    terms.add(term);
+                }
+                if (p % 2 == 1 && p < parts.length - 1 && terms.size() - first > 1) {
+                    phrases.add(new int[] {first, terms.size()});
+                }
             }
+            complete = matched;
+            allIndexed = matched && indexed;
+        }
 
-            if (candidateSet.isEmpty()) {
-                return new ArrayList<>(); // No products contain all words
+        void intersect() {
+            if (complete) {
+                List<int[]> termPostings = new ArrayList<>(terms.size());
+                for (QueryTerm term : terms) {
+                    termPostings.add(term.docIds);
+                }
+                candidates = matchPhrases(PostingList.intersectAll(termPostings));
             }
+            intersected = true;
         }
 
-        if (candidateSet.isEmpty()) {
-            return new ArrayList<>();
+        // The documents of docIds in which every quoted phrase occurs, decided from the positions
+        private int[] matchPhrases(int[] docIds) {
+            if (phrases.isEmpty()) {
+                return docIds;
+            }
+            int[] matching = new int[docIds.length];
+            int size = 0;
+            for (int docId : docIds) {
+                boolean all = true;
+                for (int p = 0; p < phrases.size() && all; p++) {
+                    all = Positions.phrase(positions(docId, phrases.get(p)[0], phrases.get(p)[1]));
+                }
+                if (all) {
+                    matching[size++] = docId;
+                }
+            }
+            return Arrays.copyOf(matching, size);
         }
 
-        // Filter by brand if provided
-        if (brands != null && !brands.isEmpty()) {
-            candidateSet = candidateSet.stream()
-                    .filter(p -> brands.contains(p.getBrand()))
-                    .collect(Collectors.toSet());
-            
-            if (candidateSet.isEmpty()) {
-                return new ArrayList<>();
+        // Positions of terms [from, to) in the document
+        int[][] positions(int docId, int from, int to) {
+            int[][] positions = new int[to - from][];
+            for (int t = from; t < to; t++) {
+                positions[t - from] = terms.get(t).positions(docId);
             }
+            return positions;
         }
 
-        // Filter by toothbrush type if provided
-        if (types != null && !types.isEmpty()) {
-            candidateSet = candidateSet.stream()
-                    .filter(p -> types.contains(p.getToothbrushType()))
-                    .collect(Collectors.toSet());
-            
-            if (candidateSet.isEmpty()) {
-                return new ArrayList<>();
+        // The most candidates there can be: the length of the shortest term's postings
+        int candidateBound() {
+            int bound = terms.isEmpty() ? 0 : Integer.MAX_VALUE;
+            for (QueryTerm term : terms) {
+                bound = Math.min(bound, term.docIds.length);
             }
+            return complete ? bound : 0;
         }
 
-        // 2. Use Boyer-Moore to rank them by frequency (Task 5)
-        // We sum the occurrences of EACH search word in the product name
-        Map<Product, Integer> productScores = new HashMap<>();
-        
-        for (Product p : candidateSet) {
-            int totalScore = 0;
-            String text = p.getName().toLowerCase();
-            
-            // Score based on individual words
-            for (String word : searchWords) {
-                if (!word.isEmpty()) {
-                    BoyerMoore bm = new BoyerMoore(word);
-                    totalScore += bm.countOccurrences(text);
-                }
+        // The candidates with ids in [from, to): a slice of candidates once they are intersected,
+        // otherwise the intersection of every term's postings sliced to that range
+        int[] candidates(int from, int to) {
+            if (intersected) {
+                return PostingList.slice(candidates, from, to);
             }
-            
-            // Bonus score for exact phrase match
-            if (searchWords.length > 1) {
-                 BoyerMoore phraseBm = new BoyerMoore(lowerKeyword);
-                 totalScore += phraseBm.countOccurrences(text) * 10; // Give higher weight to exact phrase
+            List<int[]> slices = new ArrayList<>(terms.size());
+            for (QueryTerm term : terms) {
+                slices.add(PostingList.slice(term.docIds, from, to));
             }
+            return matchPhrases(PostingList.intersectAll(slices));
+        }
+    }
 
-            productScores.put(p, totalScore);
+    // 1. Retrieve candidates for each word and find intersection (AND logic). A query that will be
+    // ranked in shards is left for each shard to intersect over its own range, unless the whole
+    // candidate set is needed anyway (intersect).
+    private ResolvedQuery resolve(IndexSnapshot idx, SearchMetrics.Trace trace, String keyword, int fuzzy,
+                                  boolean intersect) {
+        ResolvedQuery query = new ResolvedQuery(idx, keyword, Math.max(0, Math.min(fuzzy, 2)));
+        trace.stage("lookup");
+        if (intersect || !sharded(query)) {
+            query.intersect();
+            trace.stage("intersect");
         }
+        return query;
+    }
 
-        // Initial sort by score (relevance)
-        List<Product> results = productScores.entrySet().stream()
-                .sorted((e1, e2) -> e2.getValue().compareTo(e1.getValue()))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+    private ResultPage rankProducts(IndexSnapshot idx, SearchMetrics.Trace trace, ResolvedQuery query,
+                                     List<String> sort, List<String> brands, List<String> types, int page, int pageSize) {
+        page = Math.max(page, 1);
+        pageSize = clampPageSize(pageSize);
+        long offset = (long) (page - 1) * pageSize;
+        if (!query.complete) {
+            return new ResultPage(idx, new int[0], 0, page, pageSize);
+        }
+        BitSet allowed = idx.facets.filter(brands, types);
+        Ranking ranking = new Ranking(idx, query, parseSortKeys(sort));
+        int k = (int) Math.min(offset + pageSize, Integer.MAX_VALUE);
+        TopDocs top;
+        if (sharded(query)) {
+            top = rankSharded(idx, trace, query, ranking, allowed, k);
+        } else {
+            if (!query.intersected) {
+                query.intersect();
+                trace.stage("intersect");
+            }
+            top = ranking.top(query.candidates, allowed, k, offset, trace);
+        }
 
-        // Apply additional sorting if requested
-        applySorting(results, sort);
+        // The page stays document ids; Product objects or JSON are produced from them by the caller
+        int[] items = new int[Math.max(0, top.docIds.length - (int) Math.min(offset, top.docIds.length))];
+        System.arraycopy(top.docIds, top.docIds.length - items.length, items, 0, items.length);
+        trace.stage("sort");
+        return new ResultPage(idx, items, top.filtered, page, pageSize);
+    }
 
-        return results;
+    // Large queries only: below MIN_SHARDED_CANDIDATES the fan-out costs more than it saves
+    private boolean sharded(ResolvedQuery query) {
+        return shardPool != null && query.candidateBound() >= MIN_SHARDED_CANDIDATES;
     }
 
-    private double parsePrice(Product p) {
-        try {
-            String priceStr = p.getPrice().replaceAll("[^\\d.]", "");
-            return Double.parseDouble(priceStr);
-        } catch (NumberFormatException e) {
-            return 0.0;
+    // Scatter-gather over document-id shards: shard s owns the ids [s * n / shards, (s + 1) * n / shards)
+    // and the slice of every posting list in that range. Each shard intersects, filters, scores
+    // (with its own max-score threshold) and keeps its k best; the requesting thread ranks the
+    // first shard itself while the pool ranks the others. Scores use the index-wide BM25
+    // statistics, so the k best of the merged shard results are exactly the single-index k best.
+    private TopDocs rankSharded(IndexSnapshot idx, SearchMetrics.Trace trace, ResolvedQuery query,
+                                Ranking ranking, BitSet allowed, int k) {
+        int docCount = idx.products.size();
+        List<ForkJoinTask<TopDocs>> tasks = new ArrayList<>(shards - 1);
+        for (int s = 1; s < shards; s++) {
+            int from = (int) ((long) docCount * s / shards);
+            int to = (int) ((long) docCount * (s + 1) / shards);
+            tasks.add(shardPool.submit(() -> ranking.top(query.candidates(from, to), allowed, k, 0, null)));
         }
-    }
+        List<TopDocs> results = new ArrayList<>(shards);
+        int firstEnd = (int) ((long) docCount / shards);
+        results.add(ranking.top(query.candidates(0, firstEnd), allowed, k, 0, null));
+        for (ForkJoinTask<TopDocs> task : tasks) {
+            results.add(task.join());
+        }
+        trace.stage("shards");
 
-    private int parseBatteryLife(Product p) {
-        try {
-            String batteryStr = p.getBatteryLife().trim();
-            return Integer.parseInt(batteryStr);
-        } catch (NumberFormatException | NullPointerException e) {
-            return 0;
+        int matched = 0;
+        int filtered = 0;
+        int scored = 0;
+        int count = 0;
+        for (TopDocs result : results) {
+            matched += result.matched;
+            filtered += result.filtered;
+            scored += result.scored;
+            count += result.docIds.length;
+        }
+        int[] docIds = new int[count];
+        double[] scores = new double[count];
+        int pos = 0;
+        for (TopDocs result : results) {
+            System.arraycopy(result.docIds, 0, docIds, pos, result.docIds.length);
+            System.arraycopy(result.scores, 0, scores, pos, result.scores.length);
+            pos += result.docIds.length;
         }
+        trace.candidates(matched, filtered);
+        trace.scored(scored);
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = i;
+        }
+        int[] best = selectTop(positions, count, ranking.order(docIds, scores), k);
+        int[] bestDocIds = new int[best.length];
+        double[] bestScores = new double[best.length];
+        for (int i = 0; i < best.length; i++) {
+            bestDocIds[i] = docIds[best[i]];
+            bestScores[i] = scores[best[i]];
+        }
+        return new TopDocs(bestDocIds, bestScores, matched, filtered, scored);
     }
 
-    private int getWaterproofLevel(Product p) {
-        String rating = p.getWaterproofRating();
-        if (rating == null) return 0;
-        rating = rating.trim().toUpperCase();
-        if (rating.contains("IPX8")) return 3;
-        if (rating.contains("IPX7")) return 2;
-        if (rating.contains("IP")) return 1;
-        return 0;
+    // The k best documents of a candidate set, best first, with their scores, and the candidate
+    // counts behind them
+    private static final class TopDocs {
+        final int[] docIds;
+        final double[] scores;
+        final int matched;   // candidates before the brand / type filter
+        final int filtered;  // candidates after it: the total of the result
+        final int scored;
+
+        TopDocs(int[] docIds, double[] scores, int matched, int filtered, int scored) {
+            this.docIds = docIds;
+            this.scores = scores;
+            this.matched = matched;
+            this.filtered = filtered;
+            this.scored = scored;
+        }
     }
 
-    private void applySorting(List<Product> products, List<String> sorts) {
-        if (sorts == null || sorts.isEmpty() || (sorts.size() == 1 && "default".equals(sorts.get(0)))) {
-            return;
+    // How one query ranks documents (Task 5): BM25 from the index statistics, plus for a multi-word
+    // query a bonus worth every word's best score again when the words appear as the exact phrase
+    // in the name, and a smaller one the closer together they appear otherwise; both come from the
+    // token positions in the postings. All under the requested sort keys. Read-only once built,
+    // so shards share it.
+    private static final class Ranking {
+        final ResolvedQuery query;
+        final List<QueryTerm> terms;   // highest upper bound first
+        final double phraseBonus;
+        final boolean distinctTerms;   // no vocabulary word is matched by two query terms
+        final double[] remaining;      // remaining[j]: the most terms j.. (plus the phrase bonus) can still add
+        final ProductColumns.DocComparator byKeys;
+
+        Ranking(IndexSnapshot idx, ResolvedQuery query, List<String> sortKeys) {
+            this.query = query;
+            terms = new ArrayList<>(query.terms);
+            terms.sort((a, b) -> Double.compare(b.upperBound, a.upperBound));
+            double bonus = 0;
+            if (terms.size() > 1) {
+                for (QueryTerm term : terms) {
+                    bonus += term.upperBound;
+                }
+            }
+            phraseBonus = bonus;
+            Set<String> matched = new HashSet<>();
+            boolean distinct = true;
+            for (QueryTerm term : terms) {
+                for (String word : term.words) {
+                    distinct &= matched.add(word);
+                }
+            }
+            distinctTerms = distinct;
+            remaining = new double[terms.size() + 1];
+            remaining[terms.size()] = phraseBonus;
+            for (int j = terms.size() - 1; j >= 0; j--) {
+                remaining[j] = remaining[j + 1] + terms.get(j).upperBound;
+            }
+            byKeys = idx.columns.comparator(sortKeys);
         }
 
-        List<String> flatSorts = new ArrayList<>();
-        for (String s : sorts) {
-            if (s.contains(",")) {
-                flatSorts.addAll(Arrays.asList(s.split(",")));
+        // Requested sort keys first, then relevance, then catalog order, over positions of docIds
+        ProductColumns.DocComparator order(int[] docIds, double[] scores) {
+            return (a, b) -> {
+                int c = byKeys == null ? 0 : byKeys.compare(docIds[a], docIds[b]);
+                if (c == 0) c = Double.compare(scores[b], scores[a]);
+                return c != 0 ? c : Integer.compare(docIds[a], docIds[b]);
+            };
+        }
+
+        // The full bonus for the exact phrase; otherwise PROXIMITY_WEIGHT of it, shrinking as
+        // the shortest window holding every word grows past the number of words. Only for
+        // distinct terms: with a repeated word ("brush brush") one occurrence would fill the
+        // window for all of them.
+        double phraseScore(int docId) {
+            if (phraseBonus == 0) {
+                return 0;
+            }
+            int words = query.terms.size();
+            int[][] positions = query.positions(docId, 0, words);
+            if (Positions.phrase(positions)) {
+                return phraseBonus;
+            }
+            if (!distinctTerms) {
+                return 0;
+            }
+            int window = Positions.minWindow(positions);
+            return phraseBonus * PROXIMITY_WEIGHT * (words - 1) / Math.max(words - 1, window - 1);
+        }
+
+        // The k best of candidates (ascending ids) that pass allowed; nothing is scored when
+        // skip, the start of the page, is past them all. trace may be null.
+        TopDocs top(int[] candidates, BitSet allowed, int k, long skip, SearchMetrics.Trace trace) {
+            // Filter by brand / toothbrush type if provided (into a copy: postings belong to the Trie)
+            int[] filtered = new int[candidates.length];
+            int size = 0;
+            for (int docId : candidates) {
+                if (allowed == null || allowed.get(docId)) {
+                    filtered[size++] = docId;
+                }
+            }
+            if (trace != null) {
+                trace.candidates(candidates.length, size);
+                trace.stage("filter");
+            }
+            if (size == 0 || skip >= size) {
+                return new TopDocs(new int[0], new double[0], candidates.length, size, 0);
+            }
+
+            double[] scores = new double[size];
+            ProductColumns.DocComparator order = order(filtered, scores);
+            int[] top;
+            int scoredCount;
+            if (byKeys == null) {
+                // Relevance only: max-score early termination. Candidates arrive in ascending id
+                // order, so once the heap is full a candidate must strictly beat its worst entry;
+                // scoring stops as soon as the remaining upper bounds cannot get it there.
+                PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(k, size), (a, b) -> order.compare(b, a));
+                scoredCount = 0;
+                for (int i = 0; i < size; i++) {
+                    int docId = filtered[i];
+                    double threshold = heap.size() >= k ? scores[heap.peek()] : Double.NEGATIVE_INFINITY;
+                    double score = 0;
+                    int j = 0;
+                    while (j < terms.size() && score + remaining[j] > threshold) {
+                        score += terms.get(j).score(docId);
+                        j++;
+                    }
+                    if (j < terms.size() || score + remaining[j] <= threshold) {
+                        continue; // cannot make the page
+                    }
+                    scoredCount++;
+                    scores[i] = score + phraseScore(docId);
+                    if (heap.size() < k) {
+                        heap.add(i);
+                    } else if (order.compare(i, heap.peek()) < 0) {
+                        heap.poll();
+                        heap.add(i);
+                    }
+                }
+                top = new int[heap.size()];
+                for (int i = top.length - 1; i >= 0; i--) {
+                    top[i] = heap.poll();
+                }
             } else {
-                flatSorts.add(s);
+                // Only the page * size best candidates are selected with a bounded heap and ordered
+                for (int i = 0; i < size; i++) {
+                    int docId = filtered[i];
+                    double score = 0;
+                    for (QueryTerm term : terms) {
+                        score += term.score(docId);
+                    }
+                    scores[i] = score + phraseScore(docId);
+                }
+                scoredCount = size;
+                int[] positions = new int[size];
+                for (int i = 0; i < size; i++) {
+                    positions[i] = i;
+                }
+                top = selectTop(positions, size, order, k);
             }
+            if (trace != null) {
+                trace.scored(scoredCount);
+                trace.stage("score");
+            }
+            int[] docIds = new int[top.length];
+            double[] topScores = new double[top.length];
+            for (int i = 0; i < top.length; i++) {
+                docIds[i] = filtered[top[i]];
+                topScores[i] = scores[top[i]];
+            }
+            return new TopDocs(docIds, topScores, candidates.length, size, scoredCount);
         }
+    }
 
-        Comparator<Product> comparator = null;
+    // One query word resolved against the index: the indexed words it matches (itself, or every
+    // word within the fuzzy distance), their postings and BM25 upper bound. A document scores
+    // the best of its matching words.
+    private static final class QueryTerm {
+        final Bm25 bm25;
+        final int[] docIds;          // union of the matched words' postings
+        final int[][] postings;
+        final int[][] termFreqs;
+        final Positions[] positions;
+        final List<String> words;    // the vocabulary words matched, aligned with postings
+        final double upperBound;
+        final boolean indexed;       // the word itself is in the vocabulary
 
-        for (String sort : flatSorts) {
-            Comparator<Product> currentComparator = null;
-            if ("price_asc".equals(sort)) {
-                currentComparator = Comparator.comparingDouble(this::parsePrice);
-            } else if ("price_desc".equals(sort)) {
-                currentComparator = Comparator.comparingDouble(this::parsePrice).reversed();
-            } else if ("battery_asc".equals(sort)) {
-                currentComparator = Comparator.comparingInt(this::parseBatteryLife);
-            } else if ("battery_desc".equals(sort)) {
-                currentComparator = Comparator.comparingInt(this::parseBatteryLife).reversed();
-            } else if ("waterproof_asc".equals(sort)) {
-                currentComparator = Comparator.comparingInt(this::getWaterproofLevel);
-            } else if ("waterproof_desc".equals(sort)) {
-                currentComparator = Comparator.comparingInt(this::getWaterproofLevel).reversed();
+        QueryTerm(IndexSnapshot idx, String word, int maxDistance) {
+            Vocabulary vocabularyTrie = idx.vocabulary;
+            bm25 = idx.bm25;
+            List<String> matches = maxDistance > 0
+                    ? vocabularyTrie.findWordsWithinDistance(word, maxDistance)
+                    : Collections.singletonList(word);
+            words = matches;
+            postings = new int[matches.size()][];
+            termFreqs = new int[matches.size()][];
+            positions = new Positions[matches.size()];
+            double bound = 0;
+            for (int m = 0; m < matches.size(); m++) {
+                postings[m] = vocabularyTrie.searchPostings(matches.get(m));
+                termFreqs[m] = vocabularyTrie.searchTermFrequencies(matches.get(m));
+                positions[m] = vocabularyTrie.searchPositions(matches.get(m));
+                bound = Math.max(bound, bm25.maxScore(matches.get(m)));
             }
+            docIds = PostingList.union(Arrays.asList(postings));
+            upperBound = bound;
+            indexed = maxDistance > 0 ? matches.contains(word) : postings[0].length > 0;
+        }
 
-            if (currentComparator != null) {
-                if (comparator == null) {
-                    comparator = currentComparator;
-                } else {
-                    comparator = comparator.thenComparing(currentComparator);  // Chain comparators
+        double score(int docId) {
+            double best = 0;
+            for (int m = 0; m < postings.length; m++) {
+                int pos = Arrays.binarySearch(postings[m], docId);
+                if (pos >= 0) {
+                    best = Math.max(best, bm25.score(termFreqs[m][pos], postings[m].length, docId));
                 }
             }
+            return best;
         }
 
-        if (comparator != null) {
-            products.sort(comparator);
+        // Token positions of the matched words in the document, ascending
+        int[] positions(int docId) {
+            int[][] lists = new int[postings.length][];
+            int count = 0;
+            for (int m = 0; m < postings.length; m++) {
+                int pos = Arrays.binarySearch(postings[m], docId);
+                if (pos >= 0) {
+                    lists[count++] = positions[m].in(pos);
+                }
+            }
+            return count == 0 ? PostingList.EMPTY : Positions.union(Arrays.copyOf(lists, count));
         }
     }
-}
 
+    public Map<String, Long> getCacheStats() {
+        Map<String, Long> stats = new LinkedHashMap<>(resultCache.stats());
+        stats.put("indexVersion", index.version);
+        return stats;
+    }
+
+    // Results are keyed by index version, operation and the normalized arguments
+    @SuppressWarnings("unchecked")
+    private <T> T cached(IndexSnapshot idx, SearchMetrics.Trace trace, Supplier<T> loader, Object... args) {
+        List<Object> key = new ArrayList<>(args.length + 2);
+        key.add(idx.version);
+        key.add(trace.op());
+        key.addAll(Arrays.asList(args));
+        return (T) resultCache.get(key, () -> {
+            trace.begin();
+            return loader.get();
+        });
+    }
+
+    // Weight of a cached result: roughly the number of products or strings it holds
+    private static int cacheWeight(Object value) {
+        if (value instanceof ResultPage) {
+            return ((ResultPage) value).itemCount() + 1;
+        }
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).size() + 1;
+        }
+        if (value instanceof Map) {
+            Object suggestions = ((Map<?, ?>) value).get("suggestions");
+            return suggestions instanceof Collection ? ((Collection<?>) suggestions).size() + 1 : 1;
+        }
+        return 1;
+    }
+
+    private static List<String> sortList(List<String> sort) {
+        return sort == null ? Collections.emptyList() : new ArrayList<>(sort);
+    }
+
+    // Filters are OR-ed within a facet, so their order and repetitions do not matter
+    private static Set<String> filterSet(List<String> values) {
+        return values == null ? Collections.emptySet() : new TreeSet<>(values);
+    }
+
+    private static int clampPageSize(int size) {
+        if (size <= 0) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(size, MAX_PAGE_SIZE);
+    }
+
+    // Bounded heap selection: the k best of values[0..count) under a total order, best first.
+    // O(count log k) instead of sorting every value.
+    private static int[] selectTop(int[] values, int count, ProductColumns.DocComparator order, int k) {
+        k = Math.min(k, count);
+        if (k <= 0) {
+            return new int[0];
+        }
+        PriorityQueue<Integer> heap = new PriorityQueue<>(k, (a, b) -> order.compare(b, a)); // worst on top
+        for (int i = 0; i < count; i++) {
+            int value = values[i];
+            if (heap.size() < k) {
+                heap.add(value);
+            } else if (order.compare(value, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(value);
+            }
+        }
+        int[] top = new int[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            top[i] = heap.poll();
+        }
+        return top;
+    }
+
+    // Expands comma-separated values; "default" and unknown keys are dropped by ProductColumns
+    private List<String> parseSortKeys(List<String> sorts) {
+        List<String> flatSorts = new ArrayList<>();
+        if (sorts == null) {
+            return flatSorts;
+        }
+        for (String s : sorts) {
+            if (s.contains(",")) {
+                flatSorts.addAll(Arrays.asList(s.split(",")));
+            } else {
+                flatSorts.add(s);
+            }
+        }
+        return flatSorts;
+    }
+}
@@ -0,0 +1,165 @@
+package com.toothbrush.service;
+
+import com.toothbrush.util.LruCache;
+import io.micrometer.core.instrument.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Micrometer instrumentation of SearchEngineService:
+//   search.request{op}           latency of a whole service call, cache hits included
+//   search.stage{op, stage}      latency of one stage of a computed (not cached) result
+//   search.candidates{stage}     candidate-set sizes: matched, filtered, scored
+//   spellcheck.candidates{kind}  words and phrases a spellcheck evaluated
+//   search.cache.requests{result}, search.cache.evictions, search.cache.entries/weight
+//   index.products, index.version, index.pending.changes, index.memory{part}
+// Histograms are switched on with management.metrics.distribution.percentiles-histogram.*.
+final class SearchMetrics {
+    private final MeterRegistry registry;
+    private final Map<String, Timer> requestTimers = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Timer>> stageTimers = new ConcurrentHashMap<>();
+    private final DistributionSummary matched;
+    private final DistributionSummary filtered;
+    private final DistributionSummary scored;
+    private final Counter spellWords;
+    private final Counter spellPhrases;
+
+    SearchMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        matched = candidates("matched");
+        filtered = candidates("filtered");
+        scored = candidates("scored");
+        spellWords = Counter.builder("spellcheck.candidates").tag("kind", "word")
+                .description("Correction candidates looked up for misspelled words").register(registry);
+        spellPhrases = Counter.builder("spellcheck.candidates").tag("kind", "phrase")
+                .description("Corrected phrases checked against the index").register(registry);
+    }
+
+    private DistributionSummary candidates(String stage) {
+        return DistributionSummary.builder("search.candidates").tag("stage", stage)
+                .description("Documents per search: matching every word, passing the filters, fully scored")
+                .register(registry);
+    }
+
+    // Gauges read the current snapshot and cache on every scrape
+    void bind(Supplier<IndexSnapshot> index, LruCache<?, ?> cache) {
+        Gauge.builder("index.products", () -> index.get().liveCount()).register(registry);
+        Gauge.builder("index.version", () -> index.get().version).register(registry);
+        Gauge.builder("index.pending.changes", () -> index.get().pendingChanges()).register(registry);
+        Gauge.builder("index.memory", () -> index.get().vocabulary.estimateHeapBytes())
+                .tag("part", "vocabulary").baseUnit("bytes").register(registry);
+        Gauge.builder("index.memory", () -> index.get().corpusHeapBytes())
+                .tag("part", "corpus").baseUnit("bytes").register(registry);
+        Gauge.builder("index.memory", () -> index.get().phraseHeapBytes())
+                .tag("part", "phrases").baseUnit("bytes").register(registry);
+
+        FunctionCounter.builder("search.cache.requests", cache, c -> c.stats().get("hits"))
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("search.cache.requests", cache, c -> c.stats().get("misses"))
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("search.cache.evictions", cache, c -> c.stats().get("evictions"))
+                .register(registry);
+        Gauge.builder("search.cache.entries", cache, c -> c.stats().get("entries")).register(registry);
+        Gauge.builder("search.cache.weight", cache, c -> c.stats().get("weight")).register(registry);
+    }
+
+    // Starts timing one call of op; timing, when not null, receives the per-stage breakdown
+    Trace trace(String op, Map<String, Object> timing) {
+        return new Trace(op, timing);
+    }
+
+    private Timer requestTimer(String op) {
+        return requestTimers.computeIfAbsent(op, o -> Timer.builder("search.request").tag("op", o)
+                .description("Service call latency, cache hits included").register(registry));
+    }
+
+    private Timer stageTimer(String op, String stage) {
+        return stageTimers.computeIfAbsent(op, o -> new ConcurrentHashMap<>())
+                .computeIfAbsent(stage, s -> Timer.builder("search.stage").tag("op", op).tag("stage", s)
+                        .description("Latency of one stage of a computed result").register(registry));
+    }
+
+    // The stages of one call, each measured from the end of the previous one. Used by one thread.
+    // The breakdown holds "cache" (hit or miss), "totalMs", "stagesMs" and the candidate counts.
+    final class Trace {
+        private final String op;
+        private final Map<String, Object> timing;
+        private final Map<String, Double> stages;
+        private final long start;
+        private long mark;
+        private boolean computed;
+
+        private Trace(String op, Map<String, Object> timing) {
+            this.op = op;
+            this.timing = timing;
+            this.stages = timing == null ? null : new LinkedHashMap<>();
+            this.start = System.nanoTime();
+            this.mark = start;
+        }
+
+        String op() {
+            return op;
+        }
+
+        // Marks the start of the computation; time before it (the cache lookup) is not a stage
+        void begin() {
+            computed = true;
+            mark = System.nanoTime();
+        }
+
+        void stage(String name) {
+            long now = System.nanoTime();
+            stageTimer(op, name).record(now - mark, TimeUnit.NANOSECONDS);
+            if (stages != null) {
+                stages.merge(name, millis(now - mark), Double::sum);
+            }
+            mark = now;
+        }
+
+        void candidates(int matchedCount, int filteredCount) {
+            matched.record(matchedCount);
+            filtered.record(filteredCount);
+            count("matched", matchedCount);
+            count("filtered", filteredCount);
+        }
+
+        void scored(int count) {
+            scored.record(count);
+            count("scored", count);
+        }
+
+        void spellCandidates(List<?> words) {
+            spellWords.increment(words.size());
+            count("wordCandidates", words.size());
+        }
+
+        void spellPhrase() {
+            spellPhrases.increment();
+            count("phrasesChecked", 1);
+        }
+
+        private void count(String key, int value) {
+            if (timing != null) {
+                timing.merge(key, value, (a, b) -> (Integer) a + (Integer) b);
+            }
+        }
+
+        void finish() {
+            long elapsed = System.nanoTime() - start;
+            requestTimer(op).record(elapsed, TimeUnit.NANOSECONDS);
+            if (timing != null) {
+                timing.put("cache", computed ? "miss" : "hit");
+                timing.put("totalMs", millis(elapsed));
+                timing.put("stagesMs", stages);
+            }
+        }
+
+        private double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.toothbrush.service;
+
+import com.toothbrush.util.RankedCounter;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+// Thread-safe search popularity with fixed memory. All-time counts are a Space-Saving sketch;
+// the hour and day windows are rings of time slots (each its own Space-Saving sketch) plus a
+// running aggregate that is incremented on every search and decremented when a slot expires,
+// so every window's top-K is read straight off an ordered structure.
+public class SearchPopularityTracker {
+
+    public enum Window { HOUR, DAY, ALL }
+
+    private static final int ALL_TIME_CAPACITY = 1000;
+
+    private final LongSupplier clock;
+    private final RankedCounter allTime = new RankedCounter(ALL_TIME_CAPACITY);
+    private final SlidingWindow lastHour;
+    private final SlidingWindow lastDay;
+
+    public SearchPopularityTracker() {
+        this(System::currentTimeMillis);
+    }
+
+    SearchPopularityTracker(LongSupplier clock) {
+        this.clock = clock;
+        this.lastHour = new SlidingWindow(12, 5 * 60 * 1000L, 256);
+        this.lastDay = new SlidingWindow(24, 60 * 60 * 1000L, 512);
+    }
+
+    // Lowercase, trim and collapse whitespace so "Sonic  Brush" and "sonic brush" count together
+    public static String normalize(String query) {
+        if (query == null) return "";
+        return query.trim().toLowerCase().replaceAll("\\s+", " ");
+    }
+
+    public void record(String query) {
+        String key = normalize(query);
+        if (key.isEmpty()) return;
+        long now = clock.getAsLong();
+        synchronized (allTime) {
+            allTime.add(key, 1);
+        }
+        lastHour.record(key, now);
+        lastDay.record(key, now);
+    }
+
+    public List<Map.Entry<String, Long>> top(Window window, int n) {
+        switch (window) {
+            case HOUR:
+                return lastHour.top(n, clock.getAsLong());
+            case DAY:
+                return lastDay.top(n, clock.getAsLong());
+            default:
+                synchronized (allTime) {
+                    return allTime.top(n);
+                }
+        }
+    }
+
+    private static final class SlidingWindow {
+        private final long slotMillis;
+        private final RankedCounter[] slots;
+        private final long[] slotEpochs;   // which slotMillis-sized period each slot holds
+        // Sum of all live slots; never larger than slot count * slot capacity keys
+        private final RankedCounter aggregate = new RankedCounter(Integer.MAX_VALUE);
+
+        SlidingWindow(int slotCount, long slotMillis, int slotCapacity) {
+            this.slotMillis = slotMillis;
+            this.slots = new RankedCounter[slotCount];
+            this.slotEpochs = new long[slotCount];
+            for (int i = 0; i < slotCount; i++) {
+                slots[i] = new RankedCounter(slotCapacity);
+                slotEpochs[i] = -1;
+            }
+        }
+
+        synchronized void record(String key, long now) {
+            long epoch = now / slotMillis;
+            RankedCounter slot = advance(epoch);
+            slot.add(key, 1);
+            String evicted = slot.getLastEvictedKey();
+            if (evicted != null) {
+                // Mirror the sketch's replacement so the aggregate stays the exact sum of the slots
+                long evictedCount = slot.getLastEvictedCount();
+                aggregate.add(evicted, -evictedCount);
+                aggregate.add(key, evictedCount + 1);
+            } else {
+                aggregate.add(key, 1);
+            }
+        }
+
+        synchronized List<Map.Entry<String, Long>> top(int n, long now) {
+            advance(now / slotMillis);
+            return aggregate.top(n);
+        }
+
+        // Expires every slot older than the window and returns the slot for the given epoch
+        private RankedCounter advance(long epoch) {
+            for (int i = 0; i < slots.length; i++) {
+                if (slotEpochs[i] >= 0 && slotEpochs[i] <= epoch - slots.length) {
+                    expire(i);
+                }
+            }
+            int index = (int) (epoch % slots.length);
+            if (slotEpochs[index] != epoch) {
+                expire(index);
+                slotEpochs[index] = epoch;
+            }
+            return slots[index];
+        }
+
+        private void expire(int index) {
+            for (Map.Entry<String, Long> entry : slots[index].snapshot().entrySet()) {
+                aggregate.add(entry.getKey(), -entry.getValue());
+            }
+            slots[index].clear();
+            slotEpochs[index] = -1;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.toothbrush.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Length-prefixed arrays and strings for the on-disk index snapshot. Writing goes through a
+// DataOutput and reading through a ByteBuffer (usually a memory-mapped file); both are big-endian,
+// and bulk reads copy straight out of the buffer.
+public final class BinaryIO {
+
+    private BinaryIO() {
+    }
+
+    public static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    public static int[] readInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + 4 * values.length);
+        return values;
+    }
+
+    public static void writeLongs(DataOutput out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    public static long[] readLongs(ByteBuffer in) {
+        long[] values = new long[in.getInt()];
+        in.asLongBuffer().get(values);
+        in.position(in.position() + 8 * values.length);
+        return values;
+    }
+
+    public static void writeChars(DataOutput out, char[] values) throws IOException {
+        out.writeInt(values.length);
+        for (char value : values) {
+            out.writeChar(value);
+        }
+    }
+
+    public static char[] readChars(ByteBuffer in) {
+        char[] values = new char[in.getInt()];
+        in.asCharBuffer().get(values);
+        in.position(in.position() + 2 * values.length);
+        return values;
+    }
+
+    public static void writeBytes(DataOutput out, byte[] values) throws IOException {
+        out.writeInt(values.length);
+        out.write(values);
+    }
+
+    public static byte[] readBytes(ByteBuffer in) {
+        byte[] values = new byte[in.getInt()];
+        in.get(values);
+        return values;
+    }
+
+    // UTF-8, with length -1 for null
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,84 @@
+package com.toothbrush.util;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Okapi BM25 relevance. Document lengths, the average length and every term's best possible
+// contribution (its max-score upper bound) are computed once when the index is built, so
+// scoring a query only reads postings and term frequencies. Over a vocabulary that has pending
+// incremental changes, upper bounds are instead computed on first use and remembered, and the
+// document count and average length cover the live documents only, so scores equal those of a
+// full rebuild.
+public class Bm25 {
+    public static final double K1 = 1.2;
+    public static final double B = 0.75;
+
+    private final int[] docLengths;
+    private final int docCount;
+    private final double avgDocLength;
+    private final Vocabulary vocabulary;
+    private final Map<String, Double> maxTermScores = new ConcurrentHashMap<>();
+
+    public Bm25(Vocabulary vocabulary, int[] docLengths) {
+        this(vocabulary, docLengths, true);
+    }
+
+    public Bm25(Vocabulary vocabulary, int[] docLengths, boolean precompute) {
+        this(vocabulary, docLengths, docLengths.length, totalLength(docLengths), precompute);
+    }
+
+    // docCount and totalLength: the number and summed lengths of the live documents, when
+    // docLengths still holds entries of deleted ones
+    public Bm25(Vocabulary vocabulary, int[] docLengths, int docCount, long totalLength, boolean precompute) {
+        this.vocabulary = vocabulary;
+        this.docLengths = docLengths;
+        this.docCount = docCount;
+        avgDocLength = docCount == 0 ? 1 : Math.max(1.0, (double) totalLength / docCount);
+
+        if (precompute) {
+            for (String term : vocabulary.getAllWords()) {
+                maxTermScores.put(term, computeMaxScore(term));
+            }
+        }
+    }
+
+    public double idf(int docFreq) {
+        return Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    public double score(int termFreq, int docFreq, int docId) {
+        double norm = K1 * (1 - B + B * docLengths[docId] / avgDocLength);
+        return idf(docFreq) * termFreq * (K1 + 1) / (termFreq + norm);
+    }
+
+    // Highest score the term gives any document
+    public double maxScore(String term) {
+        Double known = maxTermScores.get(term);
+        if (known != null) {
+            return known;
+        }
+        double max = computeMaxScore(term);
+        if (max > 0) {
+            maxTermScores.put(term, max); // Words outside the vocabulary are not remembered
+        }
+        return max;
+    }
+
+    private static long totalLength(int[] docLengths) {
+        long total = 0;
+        for (int length : docLengths) {
+            total += length;
+        }
+        return total;
+    }
+
+    private double computeMaxScore(String term) {
+        int[] postings = vocabulary.searchPostings(term);
+        int[] termFreqs = vocabulary.searchTermFrequencies(term);
+        double max = 0;
+        for (int i = 0; i < postings.length; i++) {
+            max = Math.max(max, score(termFreqs[i], postings.length, postings[i]));
+        }
+        return max;
+    }
+}
@@ -1,20 +1,64 @@
 package com.toothbrush.util;
 
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class BoyerMoore {
-    private final int R;     // the radix
-    private int[] right;     // the bad-character skip array
-    private String pat;      // or as a string
+    private static final int ASCII = 128;
+    private static final int CACHE_LIMIT = 1024;
+    private static final Map<String, BoyerMoore> CACHE = new ConcurrentHashMap<>();
+
+    private final int[] right;         // the bad-character skip array for ASCII
+    private final char[] wideChars;    // sorted non-ASCII pattern characters
+    private final int[] wideRight;     // their rightmost positions
+    private final String pat;      // or as a string
 
     public BoyerMoore(String pat) {
-        this.R = 65536; // Support Unicode BMP
         this.pat = pat;
 
-        // position of rightmost occurrence of c in the pattern
-        right = new int[R];
-        for (int c = 0; c < R; c++)
-            right[c] = -1;
-        for (int j = 0; j < pat.length(); j++)
-            right[pat.charAt(j)] = j;
+        // position of rightmost occurrence of c in the pattern; -1 for characters not in it.
+        // Only ASCII gets a direct table, the (rare) other pattern characters are binary-searched,
+        // instead of allocating a 65,536-entry table per pattern.
+        right = new int[ASCII];
+        Arrays.fill(right, -1);
+        TreeMap<Character, Integer> wide = new TreeMap<>();
+        for (int j = 0; j < pat.length(); j++) {
+            char c = pat.charAt(j);
+            if (c < ASCII) {
+                right[c] = j;
+            } else {
+                wide.put(c, j);
+            }
+        }
+        wideChars = new char[wide.size()];
+        wideRight = new int[wide.size()];
+        int i = 0;
+        for (Map.Entry<Character, Integer> e : wide.entrySet()) {
+            wideChars[i] = e.getKey();
+            wideRight[i] = e.getValue();
+            i++;
+        }
+    }
+
+    // Shared, compiled pattern; instances are immutable so they can be reused across requests
+    public static BoyerMoore compile(String pat) {
+        BoyerMoore bm = CACHE.get(pat);
+        if (bm == null) {
+            if (CACHE.size() >= CACHE_LIMIT) {
+                CACHE.clear();
+            }
+            bm = new BoyerMoore(pat);
+            CACHE.put(pat, bm);
+        }
+        return bm;
+    }
+
+    private int rightmost(char c) {
+        if (c < ASCII) {
+            return right[c];
+        }
+        int i = Arrays.binarySearch(wideChars, c);
+        return i >= 0 ? wideRight[i] : -1;
     }
 
     public int search(String txt) {
@@ -25,7 +69,7 @@ public class BoyerMoore {
             skip = 0;
             for (int j = M - 1; j >= 0; j--) {
                 if (pat.charAt(j) != txt.charAt(i + j)) {
-                    skip = Math.max(1, j - right[txt.charAt(i + j)]);
+                    skip = Math.max(1, j - rightmost(txt.charAt(i + j)));
                     break;
                 }
             }
@@ -43,7 +87,7 @@ public class BoyerMoore {
             skip = 0;
             for (int j = M - 1; j >= 0; j--) {
                 if (pat.charAt(j) != txt.charAt(i + j)) {
-                    skip = Math.max(1, j - right[txt.charAt(i + j)]);
+                    skip = Math.max(1, j - rightmost(txt.charAt(i + j)));
                     break;
                 }
             }
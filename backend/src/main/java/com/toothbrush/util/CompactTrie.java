@@ -0,0 +1,432 @@
+package com.toothbrush.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Immutable, array-backed Trie built once from a fully populated Trie.
+// Nodes are numbered in breadth-first order so the children of every node occupy a
+// contiguous range [childStart[n], childStart[n + 1]) whose edge labels are sorted;
+// a child lookup is a binary search over a char[] slice instead of a HashMap probe.
+// Terminal nodes share their sorted posting arrays by node id, with the token positions of
+// every posting.
+// Every node also keeps its TOP_K most frequent completions (terminal node ids), so a
+// ranked autocomplete is a prefix walk plus K parent-pointer walks, never a subtree scan.
+public class CompactTrie implements Vocabulary {
+    private static final int ROOT = 0;
+    public static final int TOP_K = 10;
+
+    private final char[] labels;      // label of the edge leading into each node
+    private final int[] parent;
+    private final int[] childStart;   // size nodeCount + 1
+    private final int[] frequency;    // 0 for nodes that do not end a word
+    private final int[][] postings;   // EMPTY for nodes that do not end a word
+    private final int[][] termFreqs;  // aligned with postings
+    private final Positions[] positions; // aligned with postings
+    private final int[] topStart;     // size nodeCount + 1
+    private final int[] topNodes;     // per node: best completions, ranked
+    private final int maxDepth;
+
+    public CompactTrie(Trie source) {
+        source.freeze();
+        List<TrieNode> order = new ArrayList<>();
+        List<Character> edgeLabels = new ArrayList<>();
+        order.add(source.getRoot());
+        edgeLabels.add('\0');
+
+        int depth = 0;
+        int levelEnd = 1;
+        for (int i = 0; i < order.size(); i++) {
+            if (i == levelEnd) {
+                depth++;
+                levelEnd = order.size();
+            }
+            TrieNode node = order.get(i);
+            List<Character> keys = new ArrayList<>(node.children.keySet());
+            Collections.sort(keys);
+            for (Character c : keys) {
+                order.add(node.children.get(c));
+                edgeLabels.add(c);
+            }
+        }
+        maxDepth = depth;
+
+        int n = order.size();
+        labels = new char[n];
+        parent = new int[n];
+        childStart = new int[n + 1];
+        frequency = new int[n];
+        postings = new int[n][];
+        termFreqs = new int[n][];
+        positions = new Positions[n];
+
+        int nextChild = 1;
+        for (int i = 0; i < n; i++) {
+            TrieNode node = order.get(i);
+            labels[i] = edgeLabels.get(i);
+            childStart[i] = nextChild;
+            nextChild += node.children.size();
+            for (int c = childStart[i]; c < nextChild; c++) {
+                parent[c] = i;
+            }
+            frequency[i] = node.isEndOfWord ? node.frequency : 0;
+            postings[i] = node.isEndOfWord ? node.getPostings() : PostingList.EMPTY;
+            termFreqs[i] = node.isEndOfWord ? node.getTermFreqs() : PostingList.EMPTY;
+            positions[i] = node.isEndOfWord ? node.getPositions() : Positions.EMPTY;
+        }
+        childStart[n] = nextChild;
+
+        // Children always have larger ids than their parent, so a reverse sweep sees every
+        // child's list before its parent's. Node ids double as the tie-breaker: BFS order is
+        // shorter words first, then alphabetical.
+        int[][] top = new int[n][];
+        int total = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            top[i] = mergeTop(i, top);
+            total += top[i].length;
+        }
+        topStart = new int[n + 1];
+        topNodes = new int[total];
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            topStart[i] = pos;
+            System.arraycopy(top[i], 0, topNodes, pos, top[i].length);
+            pos += top[i].length;
+            top[i] = null;
+        }
+        topStart[n] = pos;
+    }
+
+    private CompactTrie(char[] labels, int[] parent, int[] childStart, int[] frequency, int[][] postings,
+                        int[][] termFreqs, Positions[] positions, int[] topStart, int[] topNodes, int maxDepth) {
+        this.labels = labels;
+        this.parent = parent;
+        this.childStart = childStart;
+        this.frequency = frequency;
+        this.postings = postings;
+        this.termFreqs = termFreqs;
+        this.positions = positions;
+        this.topStart = topStart;
+        this.topNodes = topNodes;
+        this.maxDepth = maxDepth;
+    }
+
+    // The arrays as they are; postings and term frequencies are flattened behind one offset array,
+    // positions are flattened as well and split again by the term frequencies
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(maxDepth);
+        BinaryIO.writeChars(out, labels);
+        BinaryIO.writeInts(out, parent);
+        BinaryIO.writeInts(out, childStart);
+        BinaryIO.writeInts(out, frequency);
+        BinaryIO.writeInts(out, topStart);
+        BinaryIO.writeInts(out, topNodes);
+        int[] offsets = new int[postings.length + 1];
+        for (int i = 0; i < postings.length; i++) {
+            offsets[i + 1] = offsets[i] + postings[i].length;
+        }
+        BinaryIO.writeInts(out, offsets);
+        out.writeInt(offsets[postings.length]);
+        for (int[] list : postings) {
+            for (int docId : list) {
+                out.writeInt(docId);
+            }
+        }
+        out.writeInt(offsets[postings.length]);
+        for (int[] list : termFreqs) {
+            for (int tf : list) {
+                out.writeInt(tf);
+            }
+        }
+        int positionCount = 0;
+        for (Positions list : positions) {
+            positionCount += list.values().length;
+        }
+        out.writeInt(positionCount);
+        for (Positions list : positions) {
+            for (int position : list.values()) {
+                out.writeInt(position);
+            }
+        }
+    }
+
+    public static CompactTrie readFrom(ByteBuffer in) {
+        int maxDepth = in.getInt();
+        char[] labels = BinaryIO.readChars(in);
+        int[] parent = BinaryIO.readInts(in);
+        int[] childStart = BinaryIO.readInts(in);
+        int[] frequency = BinaryIO.readInts(in);
+        int[] topStart = BinaryIO.readInts(in);
+        int[] topNodes = BinaryIO.readInts(in);
+        int[] offsets = BinaryIO.readInts(in);
+        int[][] postings = split(BinaryIO.readInts(in), offsets);
+        int[][] termFreqs = split(BinaryIO.readInts(in), offsets);
+        int[] flatPositions = BinaryIO.readInts(in);
+        Positions[] positions = new Positions[termFreqs.length];
+        int start = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int count = 0;
+            for (int tf : termFreqs[i]) {
+                count += tf;
+            }
+            positions[i] = Positions.of(termFreqs[i], Arrays.copyOfRange(flatPositions, start, start + count));
+            start += count;
+        }
+        return new CompactTrie(labels, parent, childStart, frequency, postings, termFreqs, positions, topStart,
+                topNodes, maxDepth);
+    }
+
+    private static int[][] split(int[] flat, int[] offsets) {
+        int[][] lists = new int[offsets.length - 1][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = offsets[i] == offsets[i + 1]
+                    ? PostingList.EMPTY
+                    : Arrays.copyOfRange(flat, offsets[i], offsets[i + 1]);
+        }
+        return lists;
+    }
+
+    private int[] mergeTop(int node, int[][] top) {
+        PriorityQueue<Integer> best = new PriorityQueue<>(TOP_K + 1, (a, b) -> compareRank(b, a));
+        if (frequency[node] > 0) {
+            best.add(node);
+        }
+        for (int child = childStart[node]; child < childStart[node + 1]; child++) {
+            for (int candidate : top[child]) {
+                best.add(candidate);
+                if (best.size() > TOP_K) {
+                    best.poll();
+                }
+            }
+        }
+        int[] ranked = new int[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = best.poll();
+        }
+        return ranked;
+    }
+
+    // Negative when node a ranks before node b
+    private int compareRank(int a, int b) {
+        if (frequency[a] != frequency[b]) {
+            return Integer.compare(frequency[b], frequency[a]);
+        }
+        return Integer.compare(a, b);
+    }
+
+    private int child(int node, char c) {
+        int lo = childStart[node];
+        int hi = childStart[node + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char label = labels[mid];
+            if (label < c) {
+                lo = mid + 1;
+            } else if (label > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int find(String word) {
+        int node = ROOT;
+        for (int i = 0; i < word.length() && node >= 0; i++) {
+            node = child(node, word.charAt(i));
+        }
+        return node;
+    }
+
+    @Override
+    public boolean search(String word) {
+        int node = find(word);
+        return node >= 0 && frequency[node] > 0;
+    }
+
+    @Override
+    public int[] searchPostings(String word) {
+        int node = find(word);
+        return node >= 0 ? postings[node] : PostingList.EMPTY;
+    }
+
+    @Override
+    public int[] searchTermFrequencies(String word) {
+        int node = find(word);
+        return node >= 0 ? termFreqs[node] : PostingList.EMPTY;
+    }
+
+    @Override
+    public Positions searchPositions(String word) {
+        int node = find(word);
+        return node >= 0 ? positions[node] : Positions.EMPTY;
+    }
+
+    @Override
+    public int[] searchPostingsFuzzy(String word, int maxDistance) {
+        List<int[]> lists = new ArrayList<>();
+        for (int node : fuzzyNodes(word, maxDistance)) {
+            lists.add(postings[node]);
+        }
+        return PostingList.union(lists);
+    }
+
+    @Override
+    public List<String> findWordsWithinDistance(String word, int maxDistance) {
+        List<String> words = new ArrayList<>();
+        for (int node : fuzzyNodes(word, maxDistance)) {
+            words.add(wordAt(node));
+        }
+        return words;
+    }
+
+    private List<Integer> fuzzyNodes(String word, int maxDistance) {
+        List<Integer> matches = new ArrayList<>();
+        int columns = word.length() + 1;
+        int[][] rows = new int[maxDepth + 1][columns]; // one reusable DP row per depth
+        for (int i = 0; i < columns; i++) {
+            rows[0][i] = i;
+        }
+        for (int c = childStart[ROOT]; c < childStart[ROOT + 1]; c++) {
+            collectFuzzy(c, 1, word, rows, maxDistance, matches);
+        }
+        return matches;
+    }
+
+    private void collectFuzzy(int node, int depth, String word, int[][] rows, int maxDistance, List<Integer> matches) {
+        int[] prevRow = rows[depth - 1];
+        int[] row = rows[depth];
+        char c = labels[node];
+        row[0] = prevRow[0] + 1;
+        int rowMin = row[0];
+        for (int i = 1; i < row.length; i++) {
+            int cost = word.charAt(i - 1) == c ? 0 : 1;
+            row[i] = Math.min(Math.min(row[i - 1] + 1, prevRow[i] + 1), prevRow[i - 1] + cost);
+            rowMin = Math.min(rowMin, row[i]);
+        }
+
+        if (frequency[node] > 0 && row[row.length - 1] <= maxDistance) {
+            matches.add(node);
+        }
+        if (rowMin <= maxDistance) {
+            for (int child = childStart[node]; child < childStart[node + 1]; child++) {
+                collectFuzzy(child, depth + 1, word, rows, maxDistance, matches);
+            }
+        }
+    }
+
+    @Override
+    public List<String> findWordsWithPrefix(String prefix) {
+        List<String> words = new ArrayList<>();
+        int node = find(prefix);
+        if (node >= 0) {
+            collectWords(node, new StringBuilder(prefix), words);
+        }
+        return words;
+    }
+
+    private void collectWords(int node, StringBuilder path, List<String> words) {
+        if (frequency[node] > 0) {
+            words.add(path.toString());
+        }
+        for (int child = childStart[node]; child < childStart[node + 1]; child++) {
+            path.append(labels[child]);
+            collectWords(child, path, words);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    @Override
+    public List<String> topCompletions(String prefix, int limit) {
+        int node = find(prefix);
+        if (node < 0) {
+            return new ArrayList<>();
+        }
+        if (limit > TOP_K) {
+            return rankAll(node, limit);
+        }
+        int end = Math.min(topStart[node] + limit, topStart[node + 1]);
+        List<String> words = new ArrayList<>(end - topStart[node]);
+        for (int i = topStart[node]; i < end; i++) {
+            words.add(wordAt(topNodes[i]));
+        }
+        return words;
+    }
+
+    private List<String> rankAll(int node, int limit) {
+        List<Integer> terminals = new ArrayList<>();
+        collectTerminals(node, terminals);
+        terminals.sort(this::compareRank);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < terminals.size() && i < limit; i++) {
+            words.add(wordAt(terminals.get(i)));
+        }
+        return words;
+    }
+
+    private void collectTerminals(int node, List<Integer> terminals) {
+        if (frequency[node] > 0) {
+            terminals.add(node);
+        }
+        for (int child = childStart[node]; child < childStart[node + 1]; child++) {
+            collectTerminals(child, terminals);
+        }
+    }
+
+    private String wordAt(int node) {
+        int length = 0;
+        for (int n = node; n != ROOT; n = parent[n]) {
+            length++;
+        }
+        char[] word = new char[length];
+        for (int n = node; n != ROOT; n = parent[n]) {
+            word[--length] = labels[n];
+        }
+        return new String(word);
+    }
+
+    @Override
+    public int getFrequency(String word) {
+        int node = find(word);
+        return node >= 0 ? frequency[node] : 0;
+    }
+
+    @Override
+    public List<String> getAllWords() {
+        return findWordsWithPrefix("");
+    }
+
+    public int nodeCount() {
+        return labels.length;
+    }
+
+    @Override
+    public long estimateHeapBytes() {
+        return HeapEstimator.object(9 * HeapEstimator.REFERENCE + 4)
+                + HeapEstimator.charArray(labels.length)
+                + HeapEstimator.intArray(parent.length)
+                + HeapEstimator.intArray(topStart.length)
+                + HeapEstimator.intArray(topNodes.length)
+                + HeapEstimator.intArray(childStart.length)
+                + HeapEstimator.intArray(frequency.length)
+                + 3 * HeapEstimator.referenceArray(postings.length)
+                + postingBytes();
+    }
+
+    private long postingBytes() {
+        long bytes = 0;
+        for (int[] list : postings) {
+            if (list.length > 0) {
+                bytes += 2 * HeapEstimator.intArray(list.length); // postings + term frequencies
+            }
+        }
+        for (Positions list : positions) {
+            if (list != Positions.EMPTY) {
+                bytes += list.estimateHeapBytes();
+            }
+        }
+        return bytes;
+    }
+}
@@ -23,4 +23,40 @@ public class EditDistance {
         }
         return dp[m][n];
     }
+
+    // Same distance as calculate(), but keeps only two DP rows and stops as soon as
+    // every cell of a row exceeds maxDistance. Returns maxDistance + 1 in that case.
+    public static int calculate(String s1, String s2, int maxDistance) {
+        int m = s1.length();
+        int n = s2.length();
+        if (Math.abs(m - n) > maxDistance) {
+            return maxDistance + 1;
+        }
+
+        int[] prev = new int[n + 1];
+        int[] curr = new int[n + 1];
+        for (int j = 0; j <= n; j++) {
+            prev[j] = j;
+        }
+
+        for (int i = 1; i <= m; i++) {
+            curr[0] = i;
+            int rowMin = curr[0];
+            for (int j = 1; j <= n; j++) {
+                if (s1.charAt(i - 1) == s2.charAt(j - 1)) {
+                    curr[j] = prev[j - 1];
+                } else {
+                    curr[j] = 1 + Math.min(curr[j - 1], Math.min(prev[j], prev[j - 1]));
+                }
+                rowMin = Math.min(rowMin, curr[j]);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        return Math.min(prev[n], maxDistance + 1);
+    }
 }
@@ -0,0 +1,32 @@
+package com.toothbrush.util;
+
+// Rough shallow-size arithmetic for a 64-bit HotSpot JVM with compressed oops.
+// Only used for the index footprint report, so 8-byte alignment is the only subtlety modelled.
+public final class HeapEstimator {
+    public static final int OBJECT_HEADER = 12;
+    public static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+
+    private HeapEstimator() {
+    }
+
+    public static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    public static long object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    public static long charArray(int length) {
+        return align(ARRAY_HEADER + 2L * length);
+    }
+
+    public static long intArray(int length) {
+        return align(ARRAY_HEADER + 4L * length);
+    }
+
+    public static long referenceArray(int length) {
+        return align(ARRAY_HEADER + (long) REFERENCE * length);
+    }
+}
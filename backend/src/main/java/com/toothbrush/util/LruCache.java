@@ -0,0 +1,82 @@
+package com.toothbrush.util;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+// Weight-bounded LRU cache: a LinkedHashMap in access order whose least recently used entries
+// are dropped once the summed weight of the values exceeds the budget. Values heavier than the
+// whole budget are returned but never stored. All methods are synchronized; a loader runs
+// outside the lock, so two threads missing on the same key may both compute it.
+public class LruCache<K, V> {
+    private final long maxWeight;
+    private final ToIntFunction<? super V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, Integer> weights = new HashMap<>();
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruCache(long maxWeight, ToIntFunction<? super V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public V get(K key, Supplier<? extends V> loader) {
+        synchronized (this) {
+            V value = entries.get(key);
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+        }
+        V value = loader.get();
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        int w = Math.max(1, weigher.applyAsInt(value));
+        if (w > maxWeight) {
+            return;
+        }
+        remove(key);
+        entries.put(key, value);
+        weights.put(key, w);
+        weight += w;
+        Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            K evicted = eldest.next().getKey();
+            eldest.remove();
+            weight -= weights.remove(evicted);
+            evictions++;
+        }
+    }
+
+    public synchronized void remove(K key) {
+        if (entries.remove(key) != null) {
+            weight -= weights.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weights.clear();
+        weight = 0;
+    }
+
+    public synchronized Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("entries", (long) entries.size());
+        stats.put("weight", weight);
+        stats.put("maxWeight", maxWeight);
+        return stats;
+    }
+}
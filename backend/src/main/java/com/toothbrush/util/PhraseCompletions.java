@@ -0,0 +1,295 @@
+package com.toothbrush.util;
+
+import java.util.*;
+
+// Next-word completion conditioned on the words typed before it. For every word of every title
+// and the one or two words directly before it (the context), the index counts the titles that
+// contain that run of words. Words get ids in alphabetical order, so the words starting with a
+// prefix form one id range, and each (context, word) pair is packed into a single long ordered by
+// context, then word. The followers of a context that start with a prefix are therefore one run of
+// the sorted key array, found with two binary searches.
+//
+// Each entry also stores its rank among the followers of its context (most titles first, then
+// shorter, then alphabetical), and a sparse table of block minimums answers "best-ranked entry in
+// a run" by scanning at most two partial blocks. The top k of a run are taken one minimum at a
+// time, splitting the run around each, so a keystroke costs O(k * BLOCK) however many words
+// follow the context.
+public class PhraseCompletions {
+    public static final int MAX_CONTEXT = 2;
+
+    private static final int ID_BITS = 21; // Word ids are stored + 1, so 0 means "no word"
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+    private static final int BLOCK = 32;
+
+    private final String[] words;  // sorted, distinct
+    private final long[] keys;     // sorted (context, word) pairs
+    private final int[] counts;    // titles containing each pair
+    private final int[] ranks;     // rank of each pair among the followers of its context
+    private final int[][] blockMin; // blockMin[j][b]: best-ranked entry in blocks b .. b + 2^j - 1
+
+    // titles: the words of each title in order; a title containing a run twice counts once
+    public PhraseCompletions(List<String[]> titles) {
+        Set<String> distinct = new TreeSet<>();
+        for (String[] title : titles) {
+            Collections.addAll(distinct, title);
+        }
+        words = distinct.toArray(new String[0]);
+        if (words.length > ID_MASK) {
+            throw new IllegalArgumentException("Too many distinct words: " + words.length);
+        }
+        Map<String, Integer> ids = new HashMap<>(words.length * 2);
+        for (int i = 0; i < words.length; i++) {
+            ids.put(words[i], i + 1);
+        }
+
+        long[] all = new long[16];
+        int size = 0;
+        for (String[] title : titles) {
+            int start = size;
+            for (int i = 1; i < title.length; i++) {
+                long word = ids.get(title[i]);
+                long previous = ids.get(title[i - 1]);
+                long beforeThat = i >= 2 ? ids.get(title[i - 2]) : 0;
+                if (size + 2 > all.length) {
+                    all = Arrays.copyOf(all, all.length * 2);
+                }
+                all[size++] = pack(0, previous, word);
+                if (beforeThat != 0) {
+                    all[size++] = pack(beforeThat, previous, word);
+                }
+            }
+            // Distinct within the title, so every title counts once per pair
+            Arrays.sort(all, start, size);
+            int kept = start;
+            for (int i = start; i < size; i++) {
+                if (i == start || all[i] != all[i - 1]) {
+                    all[kept++] = all[i];
+                }
+            }
+            size = kept;
+        }
+
+        Arrays.sort(all, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || all[i] != all[i - 1]) {
+                unique++;
+            }
+        }
+        keys = new long[unique];
+        counts = new int[unique];
+        int k = -1;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || all[i] != all[i - 1]) {
+                keys[++k] = all[i];
+            }
+            counts[k]++;
+        }
+
+        ranks = new int[unique];
+        for (int from = 0; from < unique; ) {
+            int to = from + 1;
+            while (to < unique && context(keys[to]) == context(keys[from])) {
+                to++;
+            }
+            Integer[] order = new Integer[to - from];
+            for (int i = from; i < to; i++) {
+                order[i - from] = i;
+            }
+            Arrays.sort(order, this::compareRank);
+            for (int r = 0; r < order.length; r++) {
+                ranks[order[r]] = r;
+            }
+            from = to;
+        }
+        blockMin = buildBlockMin();
+    }
+
+    private static long pack(long first, long second, long word) {
+        return first << (2 * ID_BITS) | second << ID_BITS | word;
+    }
+
+    private static long context(long key) {
+        return key >>> ID_BITS;
+    }
+
+    private String wordOf(int entry) {
+        return words[(int) (keys[entry] & ID_MASK) - 1];
+    }
+
+    private int compareRank(int a, int b) {
+        if (counts[a] != counts[b]) {
+            return Integer.compare(counts[b], counts[a]);
+        }
+        String wordA = wordOf(a);
+        String wordB = wordOf(b);
+        if (wordA.length() != wordB.length()) {
+            return Integer.compare(wordA.length(), wordB.length());
+        }
+        return wordA.compareTo(wordB);
+    }
+
+    private int[][] buildBlockMin() {
+        int blocks = (keys.length + BLOCK - 1) / BLOCK;
+        int levels = 1;
+        while ((1 << levels) <= blocks) {
+            levels++;
+        }
+        int[][] table = new int[levels][];
+        table[0] = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            table[0][b] = scan(b * BLOCK, Math.min(keys.length, (b + 1) * BLOCK), -1);
+        }
+        for (int j = 1; j < levels; j++) {
+            int span = 1 << (j - 1);
+            table[j] = new int[Math.max(0, blocks - (1 << j) + 1)];
+            for (int b = 0; b < table[j].length; b++) {
+                table[j][b] = better(table[j - 1][b], table[j - 1][b + span]);
+            }
+        }
+        return table;
+    }
+
+    // Ranks only order entries of one context, but the blocks of the table cross contexts. A
+    // query run lies inside one context and the full blocks it reads are inside the run, so
+    // every comparison that decides a query result is between entries of the same context.
+    private int better(int a, int b) {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        return ranks[a] <= ranks[b] ? a : b;
+    }
+
+    private int scan(int from, int to, int best) {
+        for (int i = from; i < to; i++) {
+            best = better(best, i);
+        }
+        return best;
+    }
+
+    // Best-ranked entry in [from, to), to > from
+    private int bestIn(int from, int to) {
+        int first = from / BLOCK;
+        int last = (to - 1) / BLOCK;
+        if (first == last) {
+            return scan(from, to, -1);
+        }
+        int best = scan(from, (first + 1) * BLOCK, -1);
+        best = scan(last * BLOCK, to, best);
+        if (first + 1 <= last - 1) {
+            int blocks = last - first - 1;
+            int j = 31 - Integer.numberOfLeadingZeros(blocks);
+            best = better(best, better(blockMin[j][first + 1], blockMin[j][last - (1 << j)]));
+        }
+        return best;
+    }
+
+    // Up to limit words starting with prefix that directly follow the context (one or two words)
+    // in some title: most titles first, then shorter, then alphabetical. limit <= 0 returns all.
+    public List<String> topFollowers(List<String> context, String prefix, int limit) {
+        int[] run = run(context, prefix);
+        List<String> top = new ArrayList<>();
+        if (run == null) {
+            return top;
+        }
+        int from = run[0];
+        int to = run[1];
+        if (limit <= 0 || limit >= to - from) {
+            Integer[] order = new Integer[to - from];
+            for (int i = from; i < to; i++) {
+                order[i - from] = i;
+            }
+            Arrays.sort(order, Comparator.comparingInt(i -> ranks[i]));
+            for (int entry : order) {
+                top.add(wordOf(entry));
+            }
+            return top;
+        }
+        // Pending runs keyed by their best entry; taking one splits its run in two
+        PriorityQueue<int[]> pending = new PriorityQueue<>(Comparator.comparingInt(r -> ranks[r[0]]));
+        pending.add(new int[] {bestIn(from, to), from, to});
+        while (top.size() < limit && !pending.isEmpty()) {
+            int[] next = pending.poll();
+            int best = next[0];
+            top.add(wordOf(best));
+            if (next[1] < best) {
+                pending.add(new int[] {bestIn(next[1], best), next[1], best});
+            }
+            if (best + 1 < next[2]) {
+                pending.add(new int[] {bestIn(best + 1, next[2]), best + 1, next[2]});
+            }
+        }
+        return top;
+    }
+
+    // Titles in which word directly follows the context (one or two words)
+    public int count(List<String> context, String word) {
+        long previous = id(context.get(context.size() - 1));
+        long beforeThat = context.size() >= 2 ? id(context.get(context.size() - 2)) : 0;
+        long wordId = id(word);
+        if (previous < 0 || beforeThat < 0 || wordId < 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(keys, pack(beforeThat, previous, wordId));
+        return i >= 0 ? counts[i] : 0;
+    }
+
+    // [from, to) of the entries for the context whose word starts with prefix; null when empty
+    private int[] run(List<String> context, String prefix) {
+        if (context.isEmpty() || context.size() > MAX_CONTEXT) {
+            throw new IllegalArgumentException("Context of 1 to " + MAX_CONTEXT + " words expected");
+        }
+        int n = context.size();
+        long previous = id(context.get(n - 1));
+        long beforeThat = n >= 2 ? id(context.get(n - 2)) : 0;
+        if (previous < 0 || beforeThat < 0) {
+            return null; // A context word that never occurs in a title
+        }
+        // Ids of the words starting with prefix: [lo, hi)
+        int lo = insertionPoint(prefix);
+        int hi = insertionPoint(prefix + Character.MAX_VALUE);
+        if (lo == hi) {
+            return null;
+        }
+        int from = keyInsertionPoint(pack(beforeThat, previous, lo + 1));
+        int to = keyInsertionPoint(pack(beforeThat, previous, hi + 1));
+        return from < to ? new int[] {from, to} : null;
+    }
+
+    public int pairCount() {
+        return keys.length;
+    }
+
+    public long estimateHeapBytes() {
+        long bytes = HeapEstimator.object(5 * HeapEstimator.REFERENCE)
+                + HeapEstimator.referenceArray(words.length)
+                + HeapEstimator.align(HeapEstimator.ARRAY_HEADER + 8L * keys.length)
+                + HeapEstimator.intArray(counts.length)
+                + HeapEstimator.intArray(ranks.length)
+                + HeapEstimator.referenceArray(blockMin.length);
+        for (int[] level : blockMin) {
+            bytes += HeapEstimator.intArray(level.length);
+        }
+        for (String word : words) {
+            // String (hash, coder, hashIsZero, value) and its Latin-1 byte array
+            bytes += HeapEstimator.object(4 + 1 + 1 + HeapEstimator.REFERENCE)
+                    + HeapEstimator.align(HeapEstimator.ARRAY_HEADER + word.length());
+        }
+        return bytes;
+    }
+
+    // Stored id of word (index + 1), -1 if it is not in any title
+    private long id(String word) {
+        int i = Arrays.binarySearch(words, word);
+        return i >= 0 ? i + 1 : -1;
+    }
+
+    private int insertionPoint(String word) {
+        int i = Arrays.binarySearch(words, word);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private int keyInsertionPoint(long key) {
+        int i = Arrays.binarySearch(keys, key);
+        return i >= 0 ? i : -i - 1;
+    }
+}
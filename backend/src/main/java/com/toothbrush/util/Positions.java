@@ -0,0 +1,133 @@
+package com.toothbrush.util;
+
+import java.util.Arrays;
+
+// Token positions of one word in every document of its posting list, flattened: the positions in
+// the i-th document are values[starts[i]] .. values[starts[i + 1] - 1], ascending. starts is the
+// running sum of the term frequencies, so only values has to be stored.
+//
+// The static helpers work on the per-document lists of several query words and decide phrase and
+// proximity matches by merging them, never by looking at the text again.
+public final class Positions {
+    public static final Positions EMPTY = new Positions(new int[] {0}, PostingList.EMPTY);
+
+    private final int[] starts;
+    private final int[] values;
+
+    private Positions(int[] starts, int[] values) {
+        this.starts = starts;
+        this.values = values;
+    }
+
+    // termFreqs: aligned with the posting list; values: every document's positions in posting order
+    public static Positions of(int[] termFreqs, int[] values) {
+        if (termFreqs.length == 0) {
+            return EMPTY;
+        }
+        int[] starts = new int[termFreqs.length + 1];
+        for (int i = 0; i < termFreqs.length; i++) {
+            starts[i + 1] = starts[i] + termFreqs[i];
+        }
+        if (starts[termFreqs.length] != values.length) {
+            throw new IllegalArgumentException("Expected " + starts[termFreqs.length] + " positions, got " + values.length);
+        }
+        return new Positions(starts, values);
+    }
+
+    // The positions in the i-th document of the posting list, as a copy
+    public int[] in(int i) {
+        return Arrays.copyOfRange(values, starts[i], starts[i + 1]);
+    }
+
+    // Every document's positions in posting order; callers must not modify the array
+    public int[] values() {
+        return values;
+    }
+
+    public long estimateHeapBytes() {
+        return HeapEstimator.object(2 * HeapEstimator.REFERENCE)
+                + HeapEstimator.intArray(starts.length) + HeapEstimator.intArray(values.length);
+    }
+
+    // Sorted union of ascending position lists (the positions of several fuzzy matches of a word)
+    public static int[] union(int[][] lists) {
+        if (lists.length == 1) {
+            return lists[0];
+        }
+        int total = 0;
+        for (int[] list : lists) {
+            total += list.length;
+        }
+        int[] all = new int[total];
+        int pos = 0;
+        for (int[] list : lists) {
+            System.arraycopy(list, 0, all, pos, list.length);
+            pos += list.length;
+        }
+        Arrays.sort(all);
+        int size = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (size == 0 || all[size - 1] != all[i]) {
+                all[size++] = all[i];
+            }
+        }
+        return size == all.length ? all : Arrays.copyOf(all, size);
+    }
+
+    // Whether word j of a phrase occurs at p + j for some p, given each word's positions in one
+    // document. Every pointer only moves forward: when word j is not at start + j, the phrase can
+    // start no earlier than its next position - j, and the walk restarts from the first word there.
+    public static boolean phrase(int[][] positions) {
+        if (positions[0].length == 0) {
+            return false;
+        }
+        int[] next = new int[positions.length];
+        int start = positions[0][0];
+        while (true) {
+            boolean aligned = true;
+            for (int j = 0; j < positions.length && aligned; j++) {
+                int[] list = positions[j];
+                while (next[j] < list.length && list[next[j]] < start + j) {
+                    next[j]++;
+                }
+                if (next[j] == list.length) {
+                    return false;
+                }
+                if (list[next[j]] != start + j) {
+                    start = list[next[j]] - j;
+                    aligned = false;
+                }
+            }
+            if (aligned) {
+                return true;
+            }
+        }
+    }
+
+    // Length in tokens of the shortest window holding at least one position of every list, in
+    // any order; Integer.MAX_VALUE when a list is empty. A k-way merge that always advances the
+    // list at the window's left edge. A position in two lists counts for both, so the lists
+    // should belong to different words.
+    public static int minWindow(int[][] positions) {
+        int[] next = new int[positions.length];
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            int minList = -1;
+            for (int j = 0; j < positions.length; j++) {
+                if (next[j] == positions[j].length) {
+                    return best;
+                }
+                int value = positions[j][next[j]];
+                if (value < min) {
+                    min = value;
+                    minList = j;
+                }
+                max = Math.max(max, value);
+            }
+            best = Math.min(best, max - min + 1);
+            next[minList]++;
+        }
+    }
+}
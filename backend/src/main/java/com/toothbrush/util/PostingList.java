@@ -0,0 +1,125 @@
+package com.toothbrush.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Operations on posting lists: strictly increasing int[] arrays of document ids.
+public final class PostingList {
+    public static final int[] EMPTY = new int[0];
+
+    // Lists whose lengths differ by more than this factor are intersected by galloping
+    private static final int GALLOP_RATIO = 8;
+
+    private PostingList() {
+    }
+
+    public static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] tmp = a;
+            a = b;
+            b = tmp;
+        }
+        if (a.length == 0) {
+            return EMPTY;
+        }
+        return (long) a.length * GALLOP_RATIO < b.length ? gallopIntersect(a, b) : mergeIntersect(a, b);
+    }
+
+    // Intersects all lists smallest-first, stopping as soon as the running result is empty.
+    public static int[] intersectAll(List<int[]> lists) {
+        if (lists.isEmpty()) {
+            return EMPTY;
+        }
+        int[][] sorted = lists.toArray(new int[0][]);
+        Arrays.sort(sorted, (x, y) -> Integer.compare(x.length, y.length));
+        int[] result = sorted[0];
+        for (int i = 1; i < sorted.length && result.length > 0; i++) {
+            result = intersect(result, sorted[i]);
+        }
+        return result;
+    }
+
+    // The ids of postings in [from, to); postings itself when they all are
+    public static int[] slice(int[] postings, int from, int to) {
+        int start = lowerBound(postings, from);
+        int end = lowerBound(postings, to);
+        return start == 0 && end == postings.length ? postings : Arrays.copyOfRange(postings, start, end);
+    }
+
+    // Index of the first id >= value
+    private static int lowerBound(int[] postings, int value) {
+        int i = Arrays.binarySearch(postings, value);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    public static int[] union(List<int[]> lists) {
+        if (lists.isEmpty()) {
+            return EMPTY;
+        }
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        int total = 0;
+        for (int[] list : lists) {
+            total += list.length;
+        }
+        int[] all = new int[total];
+        int pos = 0;
+        for (int[] list : lists) {
+            System.arraycopy(list, 0, all, pos, list.length);
+            pos += list.length;
+        }
+        Arrays.sort(all);
+        int size = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (size == 0 || all[size - 1] != all[i]) {
+                all[size++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, size);
+    }
+
+    private static int[] mergeIntersect(int[] a, int[] b) {
+        int[] out = new int[a.length];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    private static int[] gallopIntersect(int[] small, int[] large) {
+        int[] out = new int[small.length];
+        int size = 0;
+        int lo = 0;
+        for (int x : small) {
+            // Exponential probe from the last match position, then binary search the bracket
+            int step = 1;
+            int hi = lo;
+            while (hi < large.length && large[hi] < x) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int idx = Arrays.binarySearch(large, lo, Math.min(hi + 1, large.length), x);
+            if (idx >= 0) {
+                out[size++] = x;
+                lo = idx + 1;
+            } else {
+                lo = -idx - 1;
+            }
+            if (lo >= large.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(out, size);
+    }
+}
@@ -0,0 +1,105 @@
+package com.toothbrush.util;
+
+import java.util.*;
+
+// Counts keyed by string, kept ordered by count (descending, then key) so the top entries
+// are always available without sorting. With a finite capacity it behaves as a Space-Saving
+// heavy-hitters sketch: a new key arriving when the counter is full replaces the smallest
+// entry and inherits its count, which bounds memory while never underestimating heavy keys.
+// Not thread-safe; callers synchronize.
+public class RankedCounter {
+
+    private static final class Entry {
+        final String key;
+        long count;
+
+        Entry(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    private static final Comparator<Entry> RANK = (a, b) -> {
+        int c = Long.compare(b.count, a.count);
+        return c != 0 ? c : a.key.compareTo(b.key);
+    };
+
+    private final int capacity;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> ranked = new TreeSet<>(RANK);
+
+    // Key and count of the entry displaced by the last add(), or null
+    private String lastEvictedKey;
+    private long lastEvictedCount;
+
+    public RankedCounter(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Adds delta (which may be negative) to key; entries that drop to zero are removed.
+    public void add(String key, long delta) {
+        lastEvictedKey = null;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (delta <= 0) return;
+            long base = 0;
+            if (entries.size() >= capacity) {
+                Entry min = ranked.pollLast();
+                entries.remove(min.key);
+                lastEvictedKey = min.key;
+                lastEvictedCount = min.count;
+                base = min.count;
+            }
+            entry = new Entry(key, base + delta);
+            entries.put(key, entry);
+            ranked.add(entry);
+            return;
+        }
+        ranked.remove(entry);
+        entry.count += delta;
+        if (entry.count <= 0) {
+            entries.remove(key);
+        } else {
+            ranked.add(entry);
+        }
+    }
+
+    public String getLastEvictedKey() {
+        return lastEvictedKey;
+    }
+
+    public long getLastEvictedCount() {
+        return lastEvictedCount;
+    }
+
+    public long get(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? 0 : entry.count;
+    }
+
+    public List<Map.Entry<String, Long>> top(int n) {
+        List<Map.Entry<String, Long>> result = new ArrayList<>(Math.min(n, entries.size()));
+        for (Entry entry : ranked) {
+            if (result.size() >= n) break;
+            result.add(new AbstractMap.SimpleImmutableEntry<>(entry.key, entry.count));
+        }
+        return result;
+    }
+
+    public Map<String, Long> snapshot() {
+        Map<String, Long> copy = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            copy.put(entry.key, entry.count);
+        }
+        return copy;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+        ranked.clear();
+    }
+}
@@ -0,0 +1,198 @@
+package com.toothbrush.util;
+
+import java.util.*;
+
+// A base vocabulary plus a small delta vocabulary for documents added since the base was built.
+// Base documents that were deleted or replaced are tombstoned: their ids are filtered out of the
+// base postings on the fly. Delta documents have ids above every base id, so a word's postings
+// are the live base postings followed by the delta postings. Immutable once constructed.
+public class SegmentedVocabulary implements Vocabulary {
+    private final Vocabulary base;
+    private final Vocabulary delta;
+    private final BitSet deleted;
+    // Base words occurring in a deleted document: the only base words whose counts changed
+    private final Set<String> touched;
+
+    public SegmentedVocabulary(Vocabulary base, Vocabulary delta, BitSet deleted, Set<String> touched) {
+        this.base = base;
+        this.delta = delta;
+        this.deleted = deleted;
+        this.touched = touched;
+    }
+
+    @Override
+    public boolean search(String word) {
+        if (delta.search(word)) {
+            return true;
+        }
+        if (!touched.contains(word)) {
+            return base.search(word);
+        }
+        return livePostings(word).length > 0;
+    }
+
+    @Override
+    public int[] searchPostings(String word) {
+        int[] basePostings = touched.contains(word) ? livePostings(word) : base.searchPostings(word);
+        int[] deltaPostings = delta.searchPostings(word);
+        if (deltaPostings.length == 0) {
+            return basePostings;
+        }
+        if (basePostings.length == 0) {
+            return deltaPostings;
+        }
+        int[] merged = Arrays.copyOf(basePostings, basePostings.length + deltaPostings.length);
+        System.arraycopy(deltaPostings, 0, merged, basePostings.length, deltaPostings.length);
+        return merged;
+    }
+
+    @Override
+    public int[] searchTermFrequencies(String word) {
+        int[] baseFreqs = base.searchTermFrequencies(word);
+        if (touched.contains(word)) {
+            int[] postings = base.searchPostings(word);
+            int[] live = new int[postings.length];
+            int size = 0;
+            for (int i = 0; i < postings.length; i++) {
+                if (!deleted.get(postings[i])) {
+                    live[size++] = baseFreqs[i];
+                }
+            }
+            baseFreqs = Arrays.copyOf(live, size);
+        }
+        int[] deltaFreqs = delta.searchTermFrequencies(word);
+        int[] merged = Arrays.copyOf(baseFreqs, baseFreqs.length + deltaFreqs.length);
+        System.arraycopy(deltaFreqs, 0, merged, baseFreqs.length, deltaFreqs.length);
+        return merged;
+    }
+
+    @Override
+    public Positions searchPositions(String word) {
+        Positions basePositions = base.searchPositions(word);
+        Positions deltaPositions = delta.searchPositions(word);
+        boolean touchedWord = touched.contains(word);
+        if (deltaPositions.values().length == 0 && !touchedWord) {
+            return basePositions;
+        }
+        if (basePositions.values().length == 0) {
+            return deltaPositions;
+        }
+        int[] baseValues = basePositions.values();
+        int[] deltaValues = deltaPositions.values();
+        int[] merged = new int[baseValues.length + deltaValues.length];
+        int size = 0;
+        int[] postings = base.searchPostings(word);
+        int[] baseFreqs = base.searchTermFrequencies(word);
+        int start = 0;
+        for (int i = 0; i < postings.length; i++) {
+            if (!touchedWord || !deleted.get(postings[i])) {
+                System.arraycopy(baseValues, start, merged, size, baseFreqs[i]);
+                size += baseFreqs[i];
+            }
+            start += baseFreqs[i];
+        }
+        System.arraycopy(deltaValues, 0, merged, size, deltaValues.length);
+        size += deltaValues.length;
+        return Positions.of(searchTermFrequencies(word), Arrays.copyOf(merged, size));
+    }
+
+    @Override
+    public int[] searchPostingsFuzzy(String word, int maxDistance) {
+        List<int[]> lists = new ArrayList<>();
+        for (String match : findWordsWithinDistance(word, maxDistance)) {
+            lists.add(searchPostings(match));
+        }
+        return PostingList.union(lists);
+    }
+
+    @Override
+    public List<String> findWordsWithinDistance(String word, int maxDistance) {
+        return liveUnion(base.findWordsWithinDistance(word, maxDistance), delta.findWordsWithinDistance(word, maxDistance));
+    }
+
+    @Override
+    public List<String> findWordsWithPrefix(String prefix) {
+        return liveUnion(base.findWordsWithPrefix(prefix), delta.findWordsWithPrefix(prefix));
+    }
+
+    // Untouched base words keep their base counts and relative order, so the base's top
+    // limit + |touched under prefix| still holds the best limit of them. Touched and delta
+    // words are re-counted and everything is ranked together.
+    @Override
+    public List<String> topCompletions(String prefix, int limit) {
+        Set<String> candidates = new HashSet<>(delta.findWordsWithPrefix(prefix));
+        int touchedUnderPrefix = 0;
+        for (String word : touched) {
+            if (word.startsWith(prefix)) {
+                candidates.add(word);
+                touchedUnderPrefix++;
+            }
+        }
+        candidates.addAll(base.topCompletions(prefix, limit + touchedUnderPrefix));
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (String word : candidates) {
+            int frequency = getFrequency(word);
+            if (frequency > 0) {
+                counts.put(word, frequency);
+            }
+        }
+        return counts.entrySet().stream()
+                .sorted(Comparator.<Map.Entry<String, Integer>>comparingInt(e -> -e.getValue())
+                        .thenComparingInt(e -> e.getKey().length())
+                        .thenComparing(Map.Entry::getKey))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(java.util.stream.Collectors.toList());
+    }
+
+    @Override
+    public int getFrequency(String word) {
+        int frequency = delta.getFrequency(word);
+        if (!touched.contains(word)) {
+            return frequency + base.getFrequency(word);
+        }
+        int[] postings = base.searchPostings(word);
+        int[] termFreqs = base.searchTermFrequencies(word);
+        for (int i = 0; i < postings.length; i++) {
+            if (!deleted.get(postings[i])) {
+                frequency += termFreqs[i];
+            }
+        }
+        return frequency;
+    }
+
+    @Override
+    public List<String> getAllWords() {
+        return liveUnion(base.getAllWords(), delta.getAllWords());
+    }
+
+    @Override
+    public long estimateHeapBytes() {
+        return base.estimateHeapBytes() + delta.estimateHeapBytes()
+                + HeapEstimator.align(HeapEstimator.ARRAY_HEADER + deleted.size() / 8);
+    }
+
+    private int[] livePostings(String word) {
+        int[] postings = base.searchPostings(word);
+        int[] live = new int[postings.length];
+        int size = 0;
+        for (int docId : postings) {
+            if (!deleted.get(docId)) {
+                live[size++] = docId;
+            }
+        }
+        return size == postings.length ? postings : Arrays.copyOf(live, size);
+    }
+
+    private List<String> liveUnion(List<String> baseWords, List<String> deltaWords) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : baseWords) {
+            if (!touched.contains(word) || livePostings(word).length > 0) {
+                words.add(word);
+            }
+        }
+        words.addAll(deltaWords);
+        return new ArrayList<>(words);
+    }
+}
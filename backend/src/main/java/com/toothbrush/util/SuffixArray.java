@@ -0,0 +1,153 @@
+package com.toothbrush.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Suffix array over a corpus of documents, each followed by a separator that no query contains,
+// so matches never span two documents. Counting the occurrences of any substring is two binary
+// searches for the range of suffixes that start with it; overlapping occurrences all count.
+public class SuffixArray {
+    public static final char SEPARATOR = '\u0000';
+
+    private final char[] text;
+    private final int[] suffixes;
+
+    public SuffixArray(List<String> documents) {
+        StringBuilder corpus = new StringBuilder();
+        for (String document : documents) {
+            corpus.append(document).append(SEPARATOR);
+        }
+        text = corpus.toString().toCharArray();
+        suffixes = build(text);
+    }
+
+    private SuffixArray(char[] text, int[] suffixes) {
+        this.text = text;
+        this.suffixes = suffixes;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        BinaryIO.writeChars(out, text);
+        BinaryIO.writeInts(out, suffixes);
+    }
+
+    public static SuffixArray readFrom(ByteBuffer in) {
+        return new SuffixArray(BinaryIO.readChars(in), BinaryIO.readInts(in));
+    }
+
+    public int count(String pattern) {
+        if (pattern.indexOf(SEPARATOR) >= 0) {
+            return 0;
+        }
+        return bound(pattern, true) - bound(pattern, false);
+    }
+
+    public int length() {
+        return text.length;
+    }
+
+    public long estimateHeapBytes() {
+        return HeapEstimator.object(2 * HeapEstimator.REFERENCE)
+                + HeapEstimator.charArray(text.length)
+                + HeapEstimator.intArray(suffixes.length);
+    }
+
+    // upper == false: first suffix not below the pattern; upper == true: first suffix above
+    // every suffix that starts with it. Every suffix between lo and hi shares at least
+    // min(lcpLo, lcpHi) characters with the pattern, so those are never compared again.
+    private int bound(String pattern, boolean upper) {
+        int lo = -1;
+        int hi = suffixes.length;
+        int lcpLo = 0;
+        int lcpHi = 0;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            int start = suffixes[mid];
+            int l = Math.min(lcpLo, lcpHi);
+            while (l < pattern.length() && start + l < text.length && text[start + l] == pattern.charAt(l)) {
+                l++;
+            }
+            boolean before = l == pattern.length()
+                    ? upper
+                    : start + l == text.length || text[start + l] < pattern.charAt(l);
+            if (before) {
+                lo = mid;
+                lcpLo = l;
+            } else {
+                hi = mid;
+                lcpHi = l;
+            }
+        }
+        return hi;
+    }
+
+    // Prefix doubling: after each round suffixes are ordered by their first 2k characters,
+    // with one counting sort on the rank of the first half (the second half's order is
+    // already known from the previous round). O(n log n).
+    private static int[] build(char[] text) {
+        int n = text.length;
+        int[] sa = new int[n];
+        int[] rank = new int[n];
+        int[] tmp = new int[n];
+        if (n == 0) {
+            return sa;
+        }
+
+        int[] count = new int[Character.MAX_VALUE + 2];
+        for (char c : text) {
+            count[c + 1]++;
+        }
+        for (int c = 1; c < count.length; c++) {
+            count[c] += count[c - 1];
+        }
+        for (int i = 0; i < n; i++) {
+            sa[count[text[i]]++] = i;
+        }
+        rank[sa[0]] = 0;
+        for (int i = 1; i < n; i++) {
+            rank[sa[i]] = rank[sa[i - 1]] + (text[sa[i]] != text[sa[i - 1]] ? 1 : 0);
+        }
+
+        int[] bySecond = new int[n];
+        for (int k = 1; rank[sa[n - 1]] < n - 1; k <<= 1) {
+            // Suffixes without a second half come first, then the rest in second-half order
+            int p = 0;
+            for (int i = n - k; i < n; i++) {
+                bySecond[p++] = i;
+            }
+            for (int i = 0; i < n; i++) {
+                if (sa[i] >= k) {
+                    bySecond[p++] = sa[i] - k;
+                }
+            }
+
+            int classes = rank[sa[n - 1]] + 1;
+            int[] bucket = new int[classes + 1];
+            for (int i = 0; i < n; i++) {
+                bucket[rank[i] + 1]++;
+            }
+            for (int c = 1; c <= classes; c++) {
+                bucket[c] += bucket[c - 1];
+            }
+            for (int i = 0; i < n; i++) {
+                int s = bySecond[i];
+                sa[bucket[rank[s]]++] = s;
+            }
+
+            tmp[sa[0]] = 0;
+            for (int i = 1; i < n; i++) {
+                int a = sa[i - 1];
+                int b = sa[i];
+                boolean same = rank[a] == rank[b]
+                        && (a + k < n ? rank[a + k] : -1) == (b + k < n ? rank[b + k] : -1);
+                tmp[b] = tmp[a] + (same ? 0 : 1);
+            }
+            int[] swap = rank;
+            rank = tmp;
+            tmp = swap;
+        }
+        return sa;
+    }
+}
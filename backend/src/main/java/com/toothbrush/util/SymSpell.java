@@ -0,0 +1,73 @@
+package com.toothbrush.util;
+
+import java.util.*;
+
+// Symmetric-delete spelling index (SymSpell). Every dictionary word is stored under all of the
+// strings obtained by deleting up to maxDistance characters from it; a lookup generates the same
+// deletions for the input, so only words sharing a deletion variant are compared with Edit Distance.
+public class SymSpell {
+    private final int maxDistance;
+    private final Map<String, Integer> frequencies = new HashMap<>();
+    private final Map<String, List<String>> deletes = new HashMap<>();
+
+    public SymSpell(int maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    public void add(String word, int frequency) {
+        if (frequencies.containsKey(word)) {
+            frequencies.merge(word, frequency, Integer::sum);
+            return;
+        }
+        frequencies.put(word, frequency);
+        for (String variant : generateDeletes(word)) {
+            deletes.computeIfAbsent(variant, k -> new ArrayList<>(1)).add(word);
+        }
+    }
+
+    // Returns up to limit words within maxDistance of input, closest first.
+    // Ties are broken by higher frequency, then alphabetically.
+    public List<String> lookup(String input, int limit) {
+        Map<String, Integer> distances = new HashMap<>();
+        for (String variant : generateDeletes(input)) {
+            List<String> sources = deletes.get(variant);
+            if (sources == null) continue;
+            for (String word : sources) {
+                if (distances.containsKey(word)) continue;
+                distances.put(word, EditDistance.calculate(input, word, maxDistance));
+            }
+        }
+
+        return distances.entrySet().stream()
+                .filter(e -> e.getValue() <= maxDistance)
+                .sorted(Comparator.<Map.Entry<String, Integer>>comparingInt(Map.Entry::getValue)
+                        .thenComparingInt(e -> -frequencies.get(e.getKey()))
+                        .thenComparing(Map.Entry::getKey))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(java.util.stream.Collectors.toList());
+    }
+
+    public int size() {
+        return frequencies.size();
+    }
+
+    private Set<String> generateDeletes(String word) {
+        Set<String> result = new HashSet<>();
+        result.add(word);
+        List<String> frontier = Collections.singletonList(word);
+        for (int d = 0; d < maxDistance; d++) {
+            List<String> next = new ArrayList<>();
+            for (String w : frontier) {
+                for (int i = 0; i < w.length(); i++) {
+                    String deleted = w.substring(0, i) + w.substring(i + 1);
+                    if (result.add(deleted)) {
+                        next.add(deleted);
+                    }
+                }
+            }
+            frontier = next;
+        }
+        return result;
+    }
+}
@@ -2,14 +2,18 @@ package com.toothbrush.util;
 
 import java.util.*;
 
-public class Trie {
+// Built by insert and append, then frozen before anything reads its postings: freeze trims every
+// node once, so lookups never write and a frozen trie can be shared by concurrent readers.
+public class Trie implements Vocabulary {
     private TrieNode root;
+    private boolean frozen;
 
     public Trie() {
         root = new TrieNode();
     }
 
     public void insert(String word) {
+        requireMutable();
         TrieNode current = root;
         for (char c : word.toCharArray()) {
             current.children.putIfAbsent(c, new TrieNode());
@@ -19,7 +23,9 @@ public class Trie {
         current.frequency++;
     }
 
-    public void insert(String word, Object reference) {
+    // position: index of this occurrence among the document's tokens
+    public void insert(String word, int docId, int position) {
+        requireMutable();
         TrieNode current = root;
         for (char c : word.toCharArray()) {
             current.children.putIfAbsent(c, new TrieNode());
@@ -27,11 +33,62 @@ public class Trie {
         }
         current.isEndOfWord = true;
         current.frequency++;
-        if (reference != null && !current.references.contains(reference)) {
-            current.references.add(reference);
+        current.addPosting(docId, position);
+    }
+
+    // Merges a trie built over a later range of documents into this one: every document id in
+    // other must be greater than every id here, so postings are simply concatenated. Nodes
+    // missing here are moved over as they are; other must not be used afterwards.
+    public void append(Trie other) {
+        requireMutable();
+        merge(root, other.root);
+    }
+
+    // Makes the trie read-only and its postings readable; returns this
+    public Trie freeze() {
+        if (!frozen) {
+            freeze(root);
+            frozen = true;
+        }
+        return this;
+    }
+
+    private static void freeze(TrieNode node) {
+        node.freeze();
+        for (TrieNode child : node.children.values()) {
+            freeze(child);
+        }
+    }
+
+    private void requireMutable() {
+        if (frozen) {
+            throw new IllegalStateException("Trie is frozen");
+        }
+    }
+
+    private void requireFrozen() {
+        if (!frozen) {
+            throw new IllegalStateException("Trie must be frozen before its postings are read");
+        }
+    }
+
+    private static void merge(TrieNode target, TrieNode source) {
+        if (source.isEndOfWord) {
+            target.isEndOfWord = true;
+            target.frequency += source.frequency;
+            target.appendPostings(source);
+        }
+        for (Map.Entry<Character, TrieNode> entry : source.children.entrySet()) {
+            TrieNode existing = target.children.get(entry.getKey());
+            if (existing == null) {
+                target.children.put(entry.getKey(), entry.getValue());
+            } else {
+                merge(existing, entry.getValue());
+            }
         }
     }
 
+    @Override
     public boolean search(String word) {
         TrieNode current = root;
         for (char c : word.toCharArray()) {
@@ -44,18 +101,96 @@ public class Trie {
         return current.isEndOfWord;
     }
 
-    public List<Object> searchReferences(String word) {
+    @Override
+    public int[] searchPostings(String word) {
+        requireFrozen();
         TrieNode current = root;
         for (char c : word.toCharArray()) {
             TrieNode node = current.children.get(c);
             if (node == null) {
-                return Collections.emptyList();
+                return PostingList.EMPTY;
             }
             current = node;
         }
-        return current.isEndOfWord ? current.references : Collections.emptyList();
+        return current.isEndOfWord ? current.getPostings() : PostingList.EMPTY;
+    }
+
+    @Override
+    public int[] searchTermFrequencies(String word) {
+        requireFrozen();
+        TrieNode node = findNode(word);
+        return node != null && node.isEndOfWord ? node.getTermFreqs() : PostingList.EMPTY;
+    }
+
+    @Override
+    public Positions searchPositions(String word) {
+        requireFrozen();
+        TrieNode node = findNode(word);
+        return node != null && node.isEndOfWord ? node.getPositions() : Positions.EMPTY;
+    }
+
+    private TrieNode findNode(String word) {
+        TrieNode current = root;
+        for (char c : word.toCharArray()) {
+            current = current.children.get(c);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    // Union of the postings of every word within maxDistance of the given word
+    @Override
+    public int[] searchPostingsFuzzy(String word, int maxDistance) {
+        List<int[]> matches = new ArrayList<>();
+        for (String match : findWordsWithinDistance(word, maxDistance)) {
+            matches.add(searchPostings(match));
+        }
+        return PostingList.union(matches);
+    }
+
+    // Typo-tolerant lookup: walks the Trie carrying one Levenshtein DP row per node and
+    // prunes every subtree whose row minimum already exceeds maxDistance
+    @Override
+    public List<String> findWordsWithinDistance(String word, int maxDistance) {
+        List<String> matches = new ArrayList<>();
+        int[] firstRow = new int[word.length() + 1];
+        for (int i = 0; i <= word.length(); i++) {
+            firstRow[i] = i;
+        }
+        StringBuilder path = new StringBuilder();
+        for (Map.Entry<Character, TrieNode> entry : root.children.entrySet()) {
+            collectFuzzy(entry.getValue(), entry.getKey(), path, word, firstRow, maxDistance, matches);
+        }
+        return matches;
     }
 
+    private void collectFuzzy(TrieNode node, char c, StringBuilder path, String word, int[] prevRow,
+                              int maxDistance, List<String> matches) {
+        int columns = word.length() + 1;
+        int[] row = new int[columns];
+        row[0] = prevRow[0] + 1;
+        int rowMin = row[0];
+        for (int i = 1; i < columns; i++) {
+            int cost = word.charAt(i - 1) == c ? 0 : 1;
+            row[i] = Math.min(Math.min(row[i - 1] + 1, prevRow[i] + 1), prevRow[i - 1] + cost);
+            rowMin = Math.min(rowMin, row[i]);
+        }
+
+        path.append(c);
+        if (node.isEndOfWord && row[columns - 1] <= maxDistance) {
+            matches.add(path.toString());
+        }
+        if (rowMin <= maxDistance) {
+            for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+                collectFuzzy(entry.getValue(), entry.getKey(), path, word, row, maxDistance, matches);
+            }
+        }
+        path.setLength(path.length() - 1);
+    }
+
+    @Override
     public List<String> findWordsWithPrefix(String prefix) {
         List<String> words = new ArrayList<>();
         TrieNode current = root;
@@ -79,6 +214,38 @@ public class Trie {
         }
     }
 
+    @Override
+    public List<String> topCompletions(String prefix, int limit) {
+        TrieNode current = root;
+        for (char c : prefix.toCharArray()) {
+            current = current.children.get(c);
+            if (current == null) {
+                return new ArrayList<>();
+            }
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        collectCounts(current, new StringBuilder(prefix), counts);
+        return counts.entrySet().stream()
+                .sorted(Comparator.<Map.Entry<String, Integer>>comparingInt(e -> -e.getValue())
+                        .thenComparingInt(e -> e.getKey().length())
+                        .thenComparing(Map.Entry::getKey))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(java.util.stream.Collectors.toList());
+    }
+
+    private void collectCounts(TrieNode node, StringBuilder path, Map<String, Integer> counts) {
+        if (node.isEndOfWord) {
+            counts.put(path.toString(), node.frequency);
+        }
+        for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+            path.append(entry.getKey());
+            collectCounts(entry.getValue(), path, counts);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    @Override
     public int getFrequency(String word) {
         TrieNode current = root;
         for (char c : word.toCharArray()) {
@@ -91,9 +258,47 @@ public class Trie {
         return current.isEndOfWord ? current.frequency : 0;
     }
 
+    @Override
     public List<String> getAllWords() {
         List<String> words = new ArrayList<>();
         collectWords(root, "", words);
         return words;
     }
+
+    TrieNode getRoot() {
+        requireFrozen();
+        return root;
+    }
+
+    @Override
+    public long estimateHeapBytes() {
+        return HeapEstimator.object(HeapEstimator.REFERENCE) + estimateHeapBytes(root);
+    }
+
+    // TrieNode + its HashMap (table and entries) + boxed keys + its postings array.
+    private long estimateHeapBytes(TrieNode node) {
+        long bytes = HeapEstimator.object(3 * HeapEstimator.REFERENCE + 2 * 4 + 1);
+
+        int size = node.children.size();
+        bytes += HeapEstimator.object(3 * HeapEstimator.REFERENCE + 4 * 4);
+        if (size > 0) {
+            int capacity = 16;
+            while (size > capacity * 3 / 4) {
+                capacity <<= 1;
+            }
+            bytes += HeapEstimator.referenceArray(capacity);
+            bytes += size * HeapEstimator.object(3 * HeapEstimator.REFERENCE + 4);
+        }
+        for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+            if (entry.getKey() > 127) {
+                bytes += HeapEstimator.object(2); // Character cache only covers ASCII
+            }
+            bytes += estimateHeapBytes(entry.getValue());
+        }
+
+        if (node.postings.length > 0) {
+            bytes += 2 * HeapEstimator.intArray(node.postings.length) + HeapEstimator.intArray(node.positions.length);
+        }
+        return bytes;
+    }
 }
@@ -6,10 +6,97 @@ public class TrieNode {
     Map<Character, TrieNode> children = new HashMap<>();
     boolean isEndOfWord;
     int frequency;
-    List<Object> references = new ArrayList<>(); // Store references to objects (e.g., Products)
+    int[] postings = PostingList.EMPTY; // Sorted ids of the documents (e.g., Products) containing the word
+    int[] termFreqs = PostingList.EMPTY; // Occurrences of the word in each of those documents
+    int[] positions = PostingList.EMPTY; // Token positions of those occurrences, document by document
+    int postingCount;
+    int positionCount;
+    private Positions positionIndex;
 
     public TrieNode() {
         isEndOfWord = false;
         frequency = 0;
     }
+
+    // The positions of one document must be added in increasing order
+    void addPosting(int docId, int position) {
+        int pos = Arrays.binarySearch(postings, 0, postingCount, docId);
+        if (pos >= 0) {
+            int at = pos == postingCount - 1 ? positionCount : positionStart(pos + 1);
+            termFreqs[pos]++;
+            addPosition(at, position);
+            return;
+        }
+        pos = -pos - 1;
+        addPosition(pos == postingCount ? positionCount : positionStart(pos), position);
+        if (postingCount == postings.length) {
+            int capacity = Math.max(4, postingCount + (postingCount >> 1));
+            postings = Arrays.copyOf(postings, capacity);
+            termFreqs = Arrays.copyOf(termFreqs, capacity);
+        }
+        System.arraycopy(postings, pos, postings, pos + 1, postingCount - pos);
+        System.arraycopy(termFreqs, pos, termFreqs, pos + 1, postingCount - pos);
+        postings[pos] = docId;
+        termFreqs[pos] = 1;
+        postingCount++;
+    }
+
+    // Documents are usually added in id order, so this only runs for out-of-order ids
+    private int positionStart(int pos) {
+        int start = 0;
+        for (int i = 0; i < pos; i++) {
+            start += termFreqs[i];
+        }
+        return start;
+    }
+
+    private void addPosition(int at, int position) {
+        if (positionCount == positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(4, positionCount + (positionCount >> 1)));
+        }
+        System.arraycopy(positions, at, positions, at + 1, positionCount - at);
+        positions[at] = position;
+        positionCount++;
+    }
+
+    // Appends other's postings; every id in other must be greater than every id here
+    void appendPostings(TrieNode other) {
+        if (postingCount + other.postingCount > postings.length) {
+            postings = Arrays.copyOf(postings, postingCount + other.postingCount);
+            termFreqs = Arrays.copyOf(termFreqs, postingCount + other.postingCount);
+        }
+        System.arraycopy(other.postings, 0, postings, postingCount, other.postingCount);
+        System.arraycopy(other.termFreqs, 0, termFreqs, postingCount, other.postingCount);
+        postingCount += other.postingCount;
+        if (positionCount + other.positionCount > positions.length) {
+            positions = Arrays.copyOf(positions, positionCount + other.positionCount);
+        }
+        System.arraycopy(other.positions, 0, positions, positionCount, other.positionCount);
+        positionCount += other.positionCount;
+    }
+
+    // Trims the arrays to their size and indexes the positions. Called once by Trie.freeze before
+    // the node is shared; the getters below only read.
+    void freeze() {
+        if (postingCount != postings.length) {
+            postings = Arrays.copyOf(postings, postingCount);
+            termFreqs = Arrays.copyOf(termFreqs, postingCount);
+        }
+        if (positionCount != positions.length) {
+            positions = Arrays.copyOf(positions, positionCount);
+        }
+        positionIndex = Positions.of(termFreqs, positions);
+    }
+
+    int[] getPostings() {
+        return postings;
+    }
+
+    int[] getTermFreqs() {
+        return termFreqs;
+    }
+
+    Positions getPositions() {
+        return positionIndex;
+    }
 }
@@ -0,0 +1,33 @@
+package com.toothbrush.util;
+
+import java.util.List;
+
+// Read-only word index API shared by the mutable Trie and the immutable CompactTrie.
+public interface Vocabulary {
+    boolean search(String word);
+
+    // Sorted document ids of the word; callers must not modify the returned array.
+    int[] searchPostings(String word);
+
+    // Occurrences of the word in each document, aligned with searchPostings(word)
+    int[] searchTermFrequencies(String word);
+
+    // Token positions of the word in each document, aligned with searchPostings(word)
+    Positions searchPositions(String word);
+
+    int[] searchPostingsFuzzy(String word, int maxDistance);
+
+    List<String> findWordsWithinDistance(String word, int maxDistance);
+
+    List<String> findWordsWithPrefix(String prefix);
+
+    // Up to limit words starting with prefix, most frequent first (shorter, then alphabetical on ties).
+    List<String> topCompletions(String prefix, int limit);
+
+    int getFrequency(String word);
+
+    List<String> getAllWords();
+
+    // Approximate retained heap size in bytes (64-bit JVM, compressed oops).
+    long estimateHeapBytes();
+}
@@ -0,0 +1,182 @@
+package com.toothbrush.service;
+
+import com.toothbrush.model.Product;
+import com.toothbrush.model.ProductPage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Upserts and deletes patch the published snapshot with a delta segment, tombstones and in-place
+// column edits; after every batch each query must answer exactly as a full build of the same
+// live products would
+class IncrementalIndexTest {
+
+    private static final String[] WORDS = {"Zebra", "Sonic", "Kids", "Pro", "Ultra", "Clean", "Toothbrush",
+            "Electric", "Whitening", "Oral-B"};
+    private static final String[] QUERIES = {"toothbrush", "sonic", "zebra kids", "electric toothbrush", "oral",
+            "\"electric toothbrush\""};
+    private static final String[] SORTS = {"default", "price_asc", "price_desc", "battery_desc", "waterproof_asc"};
+    private static final String[] PREFIXES = {"", "t", "to", "s", "ze", "e", "zebra ", "sonic t", "electric toothbrush ",
+            "kids so", "oral-b i"};
+    private static final String[] MISSPELLINGS = {"tothbrush", "sonik", "zebar", "kid", "electirc toothbrsh"};
+    private static final String[] FREQUENCY_WORDS = {"brush", "zebra", "sonic", "oral-b", "kids"};
+
+    private SearchEngineService incremental;
+    private SearchEngineService rebuilt;
+
+    @BeforeEach
+    void setUp() {
+        incremental = service();
+        // Never merge, so every round runs against the accumulated delta and tombstones
+        incremental.setMergeThreshold(Integer.MAX_VALUE);
+        incremental.init();
+        rebuilt = service();
+        rebuilt.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        incremental.shutdown();
+        rebuilt.shutdown();
+    }
+
+    @Test
+    void incrementalUpdatesMatchFullRebuild() {
+        Random random = new Random(11);
+        for (int round = 0; round < 30; round++) {
+            applyRandomChanges(random, round);
+            IndexSnapshot current = incremental.snapshot();
+            rebuilt.publish(new IndexSnapshot(current.version, current.liveProducts(), true));
+            assertSameAnswers("round " + round);
+        }
+    }
+
+    @Test
+    void deletingEveryProductOfABrandDropsItsFacet() {
+        Map<String, List<String>> urlsByBrand = new TreeMap<>();
+        for (Product p : incremental.snapshot().liveProducts()) {
+            urlsByBrand.computeIfAbsent(p.getBrand(), k -> new ArrayList<>()).add(p.getProductUrl());
+        }
+        String brand = urlsByBrand.keySet().iterator().next();
+        incremental.deleteProducts(urlsByBrand.get(brand));
+        IndexSnapshot current = incremental.snapshot();
+        rebuilt.publish(new IndexSnapshot(current.version, current.liveProducts(), true));
+
+        Map<String, Object> facets = incremental.getFacetCounts("", null, null, 0);
+        assertFalse(((Map<?, ?>) facets.get("brands")).containsKey(brand), brand + " still in " + facets);
+        assertFalse(incremental.getAllBrands().contains(brand));
+        assertSameAnswers("without " + brand);
+    }
+
+    private void applyRandomChanges(Random random, int round) {
+        List<Product> live = incremental.snapshot().liveProducts();
+        List<Product> upserts = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        int kind = round % 4;
+        for (int c = 0; c < 1 + random.nextInt(4); c++) {
+            Product old = live.get(random.nextInt(live.size()));
+            Product p = new Product();
+            if (kind == 0) {
+                // Column-only edit, applied in place
+                p.setProductUrl(old.getProductUrl());
+                p.setPrice("$" + random.nextInt(300) + ".99");
+                upserts.add(p);
+            } else if (kind == 1) {
+                // Renamed: tombstone plus a new document in the delta segment
+                p.setProductUrl(old.getProductUrl());
+                p.setName(word(random) + " " + word(random) + " " + old.getName());
+                upserts.add(p);
+            } else if (kind == 2) {
+                deletes.add(old.getProductUrl());
+            } else {
+                p.setProductUrl("http://example.com/new/" + round + "/" + c);
+                p.setName(word(random) + " " + word(random) + " Toothbrush");
+                p.setBrand(random.nextBoolean() ? old.getBrand() : "NewBrand");
+                p.setToothbrushType(old.getToothbrushType());
+                p.setPrice("$" + random.nextInt(100));
+                p.setBatteryLife(String.valueOf(random.nextInt(60)));
+                p.setWaterproofRating("IPX7");
+                upserts.add(p);
+            }
+        }
+        if (!upserts.isEmpty()) {
+            incremental.upsertProducts(upserts);
+        }
+        if (!deletes.isEmpty()) {
+            incremental.deleteProducts(deletes);
+        }
+    }
+
+    private void assertSameAnswers(String round) {
+        assertEquals(rebuilt.getProductCount(), incremental.getProductCount(), round + " count");
+        for (String query : QUERIES) {
+            for (int fuzzy = 0; fuzzy <= 1; fuzzy++) {
+                String what = round + " search " + query + " fuzzy " + fuzzy;
+                // Relevance order too: BM25 statistics cover live documents only, and a rebuild keeps
+                // their relative order, so even ties on document id break the same way
+                assertEquals(urls(rebuilt.searchProducts(query, null, null, null, fuzzy, 1, 100)),
+                        urls(incremental.searchProducts(query, null, null, null, fuzzy, 1, 100)), what);
+                assertEquals(urls(rebuilt.searchProducts(query, List.of("price_asc"), null, null, fuzzy, 1, 100)),
+                        urls(incremental.searchProducts(query, List.of("price_asc"), null, null, fuzzy, 1, 100)),
+                        what + " by price");
+                assertEquals(rebuilt.getFacetCounts(query, null, null, fuzzy),
+                        incremental.getFacetCounts(query, null, null, fuzzy), what + " facets");
+            }
+        }
+        for (String sort : SORTS) {
+            for (int page = 1; page <= 4; page++) {
+                assertEquals(urls(rebuilt.getAllProducts(List.of(sort), null, null, page, 17)),
+                        urls(incremental.getAllProducts(List.of(sort), null, null, page, 17)),
+                        round + " list " + sort + " page " + page);
+            }
+            assertEquals(urls(rebuilt.getAllProducts(List.of(sort), List.of("NewBrand", "Oral-B"), null, 1, 50)),
+                    urls(incremental.getAllProducts(List.of(sort), List.of("NewBrand", "Oral-B"), null, 1, 50)),
+                    round + " list " + sort + " by brand");
+        }
+        assertEquals(rebuilt.getAllBrands(), incremental.getAllBrands(), round + " brands");
+        assertEquals(rebuilt.getFacetCounts("", List.of("NewBrand"), null, 0),
+                incremental.getFacetCounts("", List.of("NewBrand"), null, 0), round + " facets without query");
+        for (String prefix : PREFIXES) {
+            assertEquals(rebuilt.autocomplete(prefix, 10), incremental.autocomplete(prefix, 10),
+                    round + " autocomplete " + prefix);
+        }
+        for (String word : MISSPELLINGS) {
+            assertEquals(rebuilt.checkSpelling(word), incremental.checkSpelling(word), round + " spellcheck " + word);
+        }
+        for (String word : FREQUENCY_WORDS) {
+            assertEquals(rebuilt.getWordFrequency(word), incremental.getWordFrequency(word), round + " frequency " + word);
+            assertEquals(rebuilt.getTokenFrequency(word), incremental.getTokenFrequency(word),
+                    round + " token frequency " + word);
+        }
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static List<String> urls(ProductPage page) {
+        List<String> urls = new ArrayList<>();
+        for (Product p : page.getItems()) {
+            urls.add(p.getProductUrl());
+        }
+        return urls;
+    }
+
+    // The bundled catalog, without the snapshot file or the result cache, so both services
+    // answer from their index every time
+    private static SearchEngineService service() {
+        SearchEngineService service = new SearchEngineService();
+        service.setSnapshotPath("");
+        service.setCacheMaxWeight(0);
+        return service;
+    }
+}
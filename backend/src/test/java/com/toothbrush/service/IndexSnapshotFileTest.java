@@ -0,0 +1,125 @@
+package com.toothbrush.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A snapshot written to the index file and mapped back must answer every query like the one
+// built from the CSVs, and a file that does not belong to the catalog must never be served
+class IndexSnapshotFileTest {
+
+    private static final List<Path> CATALOG = List.of(Paths.get("../all_toothbrushes.csv"),
+            Paths.get("../all_toothbrushes1.csv"));
+    private static final String[] QUERIES = {"toothbrush", "sonic electric", "\"electric toothbrush\"", "oral-b io",
+            "kids", "tothbrush", "xyzzy", ""};
+    private static final String[] PREFIXES = {"", "t", "so", "electric ", "sonic t", "oral-b io se", "kids so"};
+    private static final String[] WORDS = {"brush", "sonic", "oral-b", "ipx7", "é", "zzz"};
+
+    @TempDir
+    Path directory;
+
+    private long checksum;
+    private IndexSnapshot built;
+    private Path file;
+    private SearchEngineService fromCsv;
+    private SearchEngineService fromFile;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        checksum = IndexSnapshotFile.checksum(CATALOG);
+        built = new IndexSnapshot(1, CatalogLoader.load(CATALOG), true);
+        file = directory.resolve("index.snapshot");
+        IndexSnapshotFile.write(file, checksum, built);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (fromCsv != null) {
+            fromCsv.shutdown();
+            fromFile.shutdown();
+        }
+    }
+
+    @Test
+    void readBackAnswersLikeTheCsvBuild() throws IOException {
+        IndexSnapshot loaded = IndexSnapshotFile.read(file, checksum, 1);
+        assertEquals(built.products.size(), loaded.products.size());
+        fromCsv = service(built);
+        fromFile = service(loaded);
+
+        for (String query : QUERIES) {
+            for (int fuzzy = 0; fuzzy <= 1; fuzzy++) {
+                for (String sort : List.of("default", "price_asc", "battery_desc")) {
+                    String what = query + " fuzzy " + fuzzy + " sort " + sort;
+                    assertArrayEquals(fromCsv.searchPage(query, List.of(sort), null, null, fuzzy, 1, 50, null).toJson(null),
+                            fromFile.searchPage(query, List.of(sort), null, null, fuzzy, 1, 50, null).toJson(null), what);
+                }
+                assertEquals(fromCsv.getFacetCounts(query, null, null, fuzzy),
+                        fromFile.getFacetCounts(query, null, null, fuzzy), query + " facets");
+            }
+            assertEquals(fromCsv.checkSpelling(query), fromFile.checkSpelling(query), query + " spellcheck");
+        }
+        for (String sort : List.of("default", "price_desc", "waterproof_asc")) {
+            for (int page = 1; page <= 3; page++) {
+                assertArrayEquals(fromCsv.listPage(List.of(sort), null, null, page, 40, null).toJson(null),
+                        fromFile.listPage(List.of(sort), null, null, page, 40, null).toJson(null), sort + " page " + page);
+            }
+            assertArrayEquals(fromCsv.listPage(List.of(sort), List.of("Oral-B"), List.of("electric"), 1, 40, null).toJson(null),
+                    fromFile.listPage(List.of(sort), List.of("Oral-B"), List.of("electric"), 1, 40, null).toJson(null),
+                    sort + " filtered");
+        }
+        assertEquals(fromCsv.getAllBrands(), fromFile.getAllBrands());
+        for (String prefix : PREFIXES) {
+            assertEquals(fromCsv.autocomplete(prefix, 10), fromFile.autocomplete(prefix, 10), "autocomplete " + prefix);
+        }
+        for (String word : WORDS) {
+            assertEquals(fromCsv.getWordFrequency(word), fromFile.getWordFrequency(word), "frequency " + word);
+            assertEquals(fromCsv.getTokenFrequency(word), fromFile.getTokenFrequency(word), "token frequency " + word);
+        }
+    }
+
+    @Test
+    void flippedPayloadByteFailsTheChecksum() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x10;
+        Files.write(file, bytes);
+        IOException e = assertThrows(IOException.class, () -> IndexSnapshotFile.read(file, checksum, 1));
+        assertTrue(e.getMessage().contains("checksum mismatch"), e.getMessage());
+    }
+
+    @Test
+    void fileOfOtherCatalogContentsIsIgnored() throws IOException {
+        assertNull(IndexSnapshotFile.read(file, checksum + 1, 1));
+        assertNull(IndexSnapshotFile.read(directory.resolve("missing.snapshot"), checksum, 1));
+    }
+
+    @Test
+    void truncatedFileIsAnError() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 100));
+        assertThrows(IOException.class, () -> IndexSnapshotFile.read(file, checksum, 1));
+    }
+
+    private static SearchEngineService service(IndexSnapshot snapshot) {
+        SearchEngineService service = new SearchEngineService();
+        service.setSnapshotPath("");
+        service.setCacheMaxWeight(0);
+        service.init();
+        service.publish(snapshot);
+        return service;
+    }
+}
@@ -0,0 +1,149 @@
+package com.toothbrush.service;
+
+import com.toothbrush.model.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Phrase autocomplete against a scan of the product names: the last two typed words as a run,
+// backing off to the last one when that run never occurs, and then only completions some name
+// has every typed word of. Checked on the bundled catalog and again after incremental updates,
+// where the base, delta and deleted-name phrase indexes are combined.
+class PhraseAutocompleteTest {
+
+    private static final int LIMIT = 10;
+
+    private SearchEngineService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new SearchEngineService();
+        service.setSnapshotPath("");
+        service.setCacheMaxWeight(0);
+        service.setMergeThreshold(Integer.MAX_VALUE);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void completionsMatchBruteForce() {
+        Random random = new Random(5);
+        assertMatchesBruteForce(random, "full build");
+
+        List<Product> live = service.snapshot().liveProducts();
+        List<Product> renamed = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Product old = live.get(random.nextInt(live.size()));
+            if (i % 2 == 0) {
+                deleted.add(old.getProductUrl());
+            } else {
+                Product p = new Product();
+                p.setProductUrl(old.getProductUrl());
+                p.setName("Sonic Pro " + old.getName());
+                renamed.add(p);
+            }
+        }
+        service.upsertProducts(renamed);
+        service.deleteProducts(deleted);
+        assertMatchesBruteForce(random, "after incremental updates");
+    }
+
+    private void assertMatchesBruteForce(Random random, String when) {
+        List<String[]> titles = new ArrayList<>();
+        for (Product p : service.snapshot().liveProducts()) {
+            titles.add(words(p.getName().toLowerCase()).toArray(new String[0]));
+        }
+        int tried = 0;
+        while (tried < 1500) {
+            String[] title = titles.get(random.nextInt(titles.size()));
+            if (title.length < 2) {
+                continue;
+            }
+            tried++;
+            int k = 1 + random.nextInt(Math.min(title.length - 1, 4));
+            String next = title[k];
+            String typed = String.join(random.nextBoolean() ? " " : "-", Arrays.copyOfRange(title, 0, k));
+            if (random.nextInt(5) == 0) {
+                // A context that is not a run of any name, to exercise the back-off
+                typed = titles.get(random.nextInt(titles.size()))[0] + " " + typed;
+            }
+            String prefix = typed + " " + next.substring(0, random.nextInt(next.length() + 1));
+            assertEquals(expected(titles, prefix), service.autocomplete(prefix, LIMIT), when + ": '" + prefix + "'");
+        }
+    }
+
+    private static List<String> expected(List<String[]> titles, String prefix) {
+        int wordStart = prefix.length();
+        while (wordStart > 0 && isWordChar(prefix.charAt(wordStart - 1))) {
+            wordStart--;
+        }
+        String head = prefix.substring(0, wordStart);
+        String partial = prefix.substring(wordStart);
+        List<String> context = words(head);
+
+        int used = Math.min(context.size(), 2);
+        Map<String, Integer> counts = followers(titles, context.subList(context.size() - used, context.size()), partial);
+        if (counts.isEmpty() && used > 1) {
+            used = 1;
+            counts = followers(titles, context.subList(context.size() - 1, context.size()), partial);
+        }
+        Map<String, Integer> ranks = counts;
+        List<String> ranked = new ArrayList<>(counts.keySet());
+        ranked.sort(Comparator.<String>comparingInt(w -> -ranks.get(w))
+                .thenComparingInt(String::length)
+                .thenComparing(Comparator.naturalOrder()));
+
+        List<String> completions = new ArrayList<>();
+        for (String word : ranked) {
+            if (completions.size() == LIMIT) {
+                break;
+            }
+            List<String> all = new ArrayList<>(context);
+            all.add(word);
+            if (used == context.size() || titles.stream().anyMatch(t -> Arrays.asList(t).containsAll(all))) {
+                completions.add(head + word);
+            }
+        }
+        return completions;
+    }
+
+    // Names in which each word starting with partial directly follows the context
+    private static Map<String, Integer> followers(List<String[]> titles, List<String> context, String partial) {
+        Map<String, Integer> counts = new HashMap<>();
+        int n = context.size();
+        for (String[] title : titles) {
+            Set<String> seen = new HashSet<>();
+            for (int i = n; i < title.length; i++) {
+                if (title[i].startsWith(partial) && Arrays.asList(title).subList(i - n, i).equals(context)
+                        && seen.add(title[i])) {
+                    counts.merge(title[i], 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    // What split("\\W+") keeps
+    private static boolean isWordChar(char c) {
+        return c < 128 && (Character.isLetterOrDigit(c) || c == '_');
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.split("\\W+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,113 @@
+package com.toothbrush.service;
+
+import com.toothbrush.model.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Ranking in document-id shards must return byte-for-byte the pages of the single-threaded
+// ranking, whatever the shard count, filters, sort or page
+class ShardedRankingTest {
+
+    private static final String[] BRANDS = {"Oral-B", "Philips", "Burst", "Colgate", "Fairywill"};
+    private static final String[] TYPES = {"electric", "sonic", "manual", "kids"};
+    private static final String[] WORDS = {"sonic", "electric", "toothbrush", "pro", "white", "black", "kids",
+            "travel", "brush", "head", "clean", "soft", "ultra", "rechargeable", "timer"};
+    private static final String[] QUERIES = {"toothbrush", "electric toothbrush", "sonic electric toothbrush",
+            "\"electric toothbrush\"", "\"sonic electric\" toothbrush", "brush head", "tothbrush", "xyzzy"};
+    private static final int[] SHARD_COUNTS = {2, 3, 7};
+
+    private IndexSnapshot index;
+    private SearchEngineService single;
+
+    @BeforeEach
+    void setUp() {
+        // Large enough that the common words cross the sharding threshold
+        index = new IndexSnapshot(1, catalog(6000, new Random(7)), true);
+        single = service(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        single.shutdown();
+    }
+
+    @Test
+    void shardedPagesMatchSingleShard() {
+        List<List<String>> brandFilters = Arrays.asList(null, List.of("Burst"), List.of("Oral-B", "Philips"));
+        List<List<String>> typeFilters = Arrays.asList(null, List.of("sonic"));
+        for (int shards : SHARD_COUNTS) {
+            SearchEngineService sharded = service(shards);
+            try {
+                for (String query : QUERIES) {
+                    for (int fuzzy = 0; fuzzy <= 1; fuzzy++) {
+                        for (List<String> brands : brandFilters) {
+                            for (List<String> types : typeFilters) {
+                                for (String sort : List.of("default", "price_asc", "battery_desc,price_desc")) {
+                                    for (int page : new int[] {1, 3, 400}) {
+                                        List<String> sorts = List.of(sort);
+                                        String what = shards + " shards: " + query + " fuzzy " + fuzzy + " brands "
+                                                + brands + " types " + types + " sort " + sort + " page " + page;
+                                        byte[] expected = single.searchPage(query, sorts, brands, types, fuzzy, page, 20,
+                                                null).toJson(null);
+                                        assertArrayEquals(expected, sharded.searchPage(query, sorts, brands, types, fuzzy,
+                                                page, 20, null).toJson(null), what);
+                                        assertArrayEquals(expected, sharded.searchBundle(query, sorts, brands, types,
+                                                fuzzy, page, 20).getResults().toJson(null), what + " (bundle)");
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                Map<String, Object> timing = new LinkedHashMap<>();
+                sharded.searchPage("toothbrush", null, null, null, 0, 1, 20, timing);
+                assertTrue(timing.toString().contains("shards"), "toothbrush was not ranked in shards: " + timing);
+            } finally {
+                sharded.shutdown();
+            }
+        }
+    }
+
+    private static List<Product> catalog(int count, Random random) {
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder name = new StringBuilder(BRANDS[i % BRANDS.length]);
+            for (int w = 0; w < 3 + random.nextInt(6); w++) {
+                // Skewed towards the first words, so a few of them match most of the catalog
+                name.append(' ').append(WORDS[Math.min(random.nextInt(WORDS.length), random.nextInt(WORDS.length))]);
+            }
+            Product p = new Product();
+            p.setProductUrl("http://example.com/p/" + i);
+            p.setName(name.toString());
+            p.setBrand(BRANDS[i % BRANDS.length]);
+            p.setToothbrushType(TYPES[random.nextInt(TYPES.length)]);
+            p.setPrice("$" + random.nextInt(200) + ".99");
+            p.setBatteryLife(random.nextInt(5) == 0 ? "" : String.valueOf(random.nextInt(90)));
+            p.setWaterproofRating("IPX" + random.nextInt(9));
+            products.add(p);
+        }
+        return products;
+    }
+
+    // Both services rank the same snapshot, so document ids and tie-breaks agree
+    private SearchEngineService service(int shards) {
+        SearchEngineService service = new SearchEngineService();
+        service.setSnapshotPath("");
+        service.setCacheMaxWeight(0);
+        service.setShards(shards);
+        service.init();
+        service.publish(index);
+        return service;
+    }
+}
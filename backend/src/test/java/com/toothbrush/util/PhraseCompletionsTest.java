@@ -0,0 +1,130 @@
+package com.toothbrush.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// topFollowers and count against a scan of every title. The titles use a small alphabet, so words
+// share prefixes, and the frequent contexts have hundreds of followers: runs span many blocks of
+// the sparse table, start and end mid-block, and border the runs of neighbouring contexts.
+class PhraseCompletionsTest {
+
+    private static final int[] LIMITS = {1, 2, 5, 10, 40, 0};
+
+    @Test
+    void topFollowersMatchBruteForce() {
+        Random random = new Random(3);
+        List<String[]> titles = titles(random, 3000);
+        PhraseCompletions index = new PhraseCompletions(titles);
+
+        Set<List<String>> contexts = new LinkedHashSet<>();
+        for (String[] title : titles) {
+            for (int i = 1; i < title.length; i++) {
+                contexts.add(List.of(title[i - 1]));
+                if (i >= 2) {
+                    contexts.add(List.of(title[i - 2], title[i - 1]));
+                }
+            }
+        }
+        // Context words that exist but never precede one another, and one that never occurs
+        contexts.add(List.of(titles.get(0)[0], titles.get(1)[0]));
+        contexts.add(List.of("zzz"));
+
+        int checked = 0;
+        for (List<String> context : contexts) {
+            Map<String, Integer> counts = followerCounts(titles, context);
+            List<String> prefixes = new ArrayList<>(List.of("", "q", "zzz"));
+            for (String word : counts.keySet()) {
+                for (int end = 1; end <= word.length(); end++) {
+                    prefixes.add(word.substring(0, end));
+                }
+            }
+            for (String prefix : new LinkedHashSet<>(prefixes)) {
+                List<String> expected = ranked(counts, prefix);
+                for (int limit : LIMITS) {
+                    List<String> want = limit <= 0 ? expected : expected.subList(0, Math.min(limit, expected.size()));
+                    assertEquals(want, index.topFollowers(context, prefix, limit),
+                            "followers of " + context + " starting with '" + prefix + "', limit " + limit);
+                    checked++;
+                }
+            }
+            for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                assertEquals((int) e.getValue(), index.count(context, e.getKey()), "count " + context + " " + e.getKey());
+            }
+        }
+        assertTrue(checked > 10_000, "only " + checked + " lookups");
+    }
+
+    @Test
+    void titleContainingARunTwiceCountsOnce() {
+        PhraseCompletions index = new PhraseCompletions(List.of(
+                new String[] {"sonic", "brush", "sonic", "brush"},
+                new String[] {"sonic", "brush"},
+                new String[] {"sonic", "bristle"}));
+        assertEquals(2, index.count(List.of("sonic"), "brush"));
+        assertEquals(List.of("brush", "bristle"), index.topFollowers(List.of("sonic"), "br", 0));
+        assertEquals(List.of("sonic"), index.topFollowers(List.of("sonic", "brush"), "", 5));
+    }
+
+    @Test
+    void contextMustHaveOneOrTwoWords() {
+        PhraseCompletions index = new PhraseCompletions(List.<String[]>of(new String[] {"a", "b", "c", "d"}));
+        assertThrows(IllegalArgumentException.class, () -> index.topFollowers(List.of(), "", 5));
+        assertThrows(IllegalArgumentException.class, () -> index.topFollowers(List.of("a", "b", "c"), "", 5));
+    }
+
+    // Titles of 1 to 9 words over about 1500 words of the letters a-f. A third of the words are
+    // one of five hot words, which are followed by hundreds of others, so their runs cover many
+    // blocks; counts tie often, so the length and alphabetical tie-breaks matter too.
+    private static List<String[]> titles(Random random, int count) {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int c = 0; c < 1 + random.nextInt(5); c++) {
+                word.append((char) ('a' + random.nextInt(6)));
+            }
+            words.add(word.toString());
+        }
+        List<String[]> titles = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            String[] title = new String[1 + random.nextInt(9)];
+            for (int i = 0; i < title.length; i++) {
+                title[i] = words.get(random.nextInt(3) == 0 ? random.nextInt(5) : random.nextInt(words.size()));
+            }
+            titles.add(title);
+        }
+        return titles;
+    }
+
+    // Titles in which each word directly follows the context
+    private static Map<String, Integer> followerCounts(List<String[]> titles, List<String> context) {
+        Map<String, Integer> counts = new HashMap<>();
+        int n = context.size();
+        for (String[] title : titles) {
+            Set<String> seen = new HashSet<>();
+            for (int i = n; i < title.length; i++) {
+                if (Arrays.asList(title).subList(i - n, i).equals(context) && seen.add(title[i])) {
+                    counts.merge(title[i], 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static List<String> ranked(Map<String, Integer> counts, String prefix) {
+        List<String> words = new ArrayList<>();
+        for (String word : counts.keySet()) {
+            if (word.startsWith(prefix)) {
+                words.add(word);
+            }
+        }
+        words.sort(Comparator.<String>comparingInt(w -> -counts.get(w))
+                .thenComparingInt(String::length)
+                .thenComparing(Comparator.naturalOrder()));
+        return words;
+    }
+}
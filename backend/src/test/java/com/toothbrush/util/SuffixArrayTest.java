@@ -0,0 +1,122 @@
+package com.toothbrush.util;
+
+import com.opencsv.CSVReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// count against Boyer-Moore over each document: the prefix-doubling build and the LCP-skipping
+// binary search must find every occurrence, overlapping ones included, and none across documents
+class SuffixArrayTest {
+
+    private static final String[] CATALOGS = {"../all_toothbrushes.csv", "../all_toothbrushes1.csv"};
+
+    @Test
+    void countMatchesBoyerMooreOnBundledCorpus() throws Exception {
+        List<String> documents = bundledCorpus();
+        SuffixArray index = new SuffixArray(documents);
+        Random random = new Random(17);
+        Set<String> patterns = new LinkedHashSet<>(List.of("", "toothbrush", "sonic", "o", "oo", "ss", " ", "  ",
+                "electric toothbrush", "zzzz", "ipx7", "-", "$"));
+        for (int i = 0; i < 2000; i++) {
+            // Substrings of the corpus, some of them running into the next document
+            String document = documents.get(random.nextInt(documents.size()));
+            if (document.isEmpty()) {
+                continue;
+            }
+            int from = random.nextInt(document.length());
+            String text = document + SuffixArray.SEPARATOR + documents.get(random.nextInt(documents.size()));
+            patterns.add(text.substring(from, Math.min(text.length(), from + 1 + random.nextInt(12))));
+        }
+        assertCounts(index, documents, patterns);
+    }
+
+    @Test
+    void countMatchesBoyerMooreOnRepetitiveAndNonAsciiText() {
+        Random random = new Random(29);
+        List<String> documents = new ArrayList<>(List.of("", "aaaaaaaa", "abababab", "aaa", "café crème brûlée",
+                "zahnbürste für kinder", "歯ブラシ 電動歯ブラシ", "brush 🪥 brush", "\uFFFF\uFFFE\uFFFF"));
+        char[] alphabet = {'a', 'b', 'é', '\uFFFF'};
+        for (int d = 0; d < 200; d++) {
+            // Few distinct characters, so prefix doubling needs many rounds to separate suffixes
+            char[] text = new char[random.nextInt(40)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = alphabet[random.nextInt(random.nextBoolean() ? 2 : alphabet.length)];
+            }
+            documents.add(new String(text));
+        }
+        SuffixArray index = new SuffixArray(documents);
+
+        Set<String> patterns = new LinkedHashSet<>(List.of("", "a", "aa", "aaa", "aaaa", "aba", "abab", "é",
+                "bürste", "歯ブラシ", "🪥", "\uD83E", "\uFFFF", "\uFFFF\uFFFF", "x"));
+        for (String document : documents) {
+            // Every substring of the short documents
+            for (int from = 0; from < document.length() && document.length() <= 12; from++) {
+                for (int to = from + 1; to <= document.length(); to++) {
+                    patterns.add(document.substring(from, to));
+                }
+            }
+        }
+        for (int i = 0; i < 3000; i++) {
+            String document = documents.get(random.nextInt(documents.size()));
+            if (!document.isEmpty()) {
+                int from = random.nextInt(document.length());
+                patterns.add(document.substring(from, from + 1 + random.nextInt(document.length() - from)));
+            }
+        }
+        assertCounts(index, documents, patterns);
+    }
+
+    @Test
+    void patternsWithTheSeparatorNeverMatch() {
+        SuffixArray index = new SuffixArray(List.of("sonic", "sonic"));
+        assertEquals(0, index.count("c" + SuffixArray.SEPARATOR + "s"));
+        assertEquals(0, index.count(String.valueOf(SuffixArray.SEPARATOR)));
+        assertEquals(2, index.count("sonic"));
+        // The empty pattern matches before every character, the separators included
+        assertEquals(index.length(), index.count(""));
+    }
+
+    private static void assertCounts(SuffixArray index, List<String> documents, Set<String> patterns) {
+        for (String pattern : patterns) {
+            int expected = 0;
+            if (pattern.indexOf(SuffixArray.SEPARATOR) < 0) {
+                BoyerMoore bm = new BoyerMoore(pattern);
+                for (String document : documents) {
+                    expected += bm.countOccurrences(document);
+                }
+            }
+            assertEquals(expected, index.count(pattern), "occurrences of '" + pattern + "'");
+        }
+    }
+
+    // Lowercased title and description of every row, as the frequency index stores them
+    private static List<String> bundledCorpus() throws Exception {
+        List<String> documents = new ArrayList<>();
+        for (String catalog : CATALOGS) {
+            Path path = Paths.get(catalog);
+            try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8); CSVReader csv = new CSVReader(in)) {
+                List<String> header = Arrays.asList(csv.readNext());
+                int title = header.indexOf("Title");
+                int description = header.indexOf("Description");
+                for (String[] row = csv.readNext(); row != null; row = csv.readNext()) {
+                    String text = row[title] + " " + (description >= 0 && description < row.length ? row[description] : "");
+                    documents.add(text.toLowerCase());
+                }
+            }
+        }
+        return documents;
+    }
+}
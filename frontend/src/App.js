@@ -5,6 +5,8 @@ import LoginModal from './components/LoginModal';
 
 function App() {
   const [query, setQuery] = useState('');
+  // The query whose results are shown; paging must not pick up unsubmitted search-box text
+  const [activeQuery, setActiveQuery] = useState('');
   const [products, setProducts] = useState([]);
   const [suggestions, setSuggestions] = useState([]);
   const [spellCheck, setSpellCheck] = useState(null);
@@ -16,8 +18,10 @@ function App() {
   const [selectedBrands, setSelectedBrands] = useState([]);
   const [types, setTypes] = useState([]);
   const [selectedTypes, setSelectedTypes] = useState([]);
+  const [facetCounts, setFacetCounts] = useState({ brands: {}, types: {} });
   const [showNav, setShowNav] = useState(true);
   const [currentPage, setCurrentPage] = useState(1);
+  const [totalHits, setTotalHits] = useState(0);
   const [isSortOpen, setIsSortOpen] = useState(false);
   const [isBrandOpen, setIsBrandOpen] = useState(false);
   const [isTypeOpen, setIsTypeOpen] = useState(false);
@@ -82,10 +86,26 @@ function App() {
     }
   };
 
-  const fetchProducts = async (sortOptions = sorts, brandFilters = selectedBrands, typeFilters = selectedTypes) => {
+  const fetchFacets = async (searchQuery = '', brandFilters = selectedBrands, typeFilters = selectedTypes) => {
+    try {
+      const params = { query: searchQuery };
+      if (brandFilters.length > 0) {
+        params.brands = brandFilters.join(',');
+      }
+      if (typeFilters.length > 0) {
+        params.types = typeFilters.join(',');
+      }
+      const res = await axios.get('http://localhost:8080/api/facets', { params });
+      setFacetCounts(res.data);
+    } catch (err) {
+      console.error(err);
+    }
+  };
+
+  const fetchProducts = async (sortOptions = sorts, brandFilters = selectedBrands, typeFilters = selectedTypes, page = 1) => {
     setLoading(true);
     try {
-      const params = { sort: sortOptions.length > 0 ? sortOptions.join(',') : 'default' };
+      const params = { sort: sortOptions.length > 0 ? sortOptions.join(',') : 'default', page, size: itemsPerPage };
       if (brandFilters.length > 0) {
         params.brands = brandFilters.join(',');
       }
@@ -93,8 +113,12 @@ function App() {
         params.types = typeFilters.join(',');
       }
       const res = await axios.get(`http://localhost:8080/api/products`, { params });
-      setProducts(res.data);
-      setCurrentPage(1);
+      setProducts(res.data.items);
+      setTotalHits(res.data.total);
+      setCurrentPage(page);
+      if (page === 1) {
+        fetchFacets('', brandFilters, typeFilters);
+      }
     } catch (err) {
       console.error(err);
     }
@@ -110,32 +134,35 @@ function App() {
     }
   };
 
-  const performSearch = async (searchQuery, sortOptions = sorts, brandFilters = selectedBrands, typeFilters = selectedTypes) => {
+  const performSearch = async (searchQuery, sortOptions = sorts, brandFilters = selectedBrands, typeFilters = selectedTypes, page = 1) => {
     if (!searchQuery) return;
     setLoading(true);
-    setSpellCheck(null);
     try {
-      const params = { query: searchQuery, sort: sortOptions.length > 0 ? sortOptions.join(',') : 'default' };
+      const params = { query: searchQuery, sort: sortOptions.length > 0 ? sortOptions.join(',') : 'default', page, size: itemsPerPage };
       if (brandFilters.length > 0) {
         params.brands = brandFilters.join(',');
       }
       if (typeFilters.length > 0) {
         params.types = typeFilters.join(',');
       }
-      // 1. Search
-      const res = await axios.get(`http://localhost:8080/api/search`, { params });
-      setProducts(res.data);
-      setCurrentPage(1);
-
-      // 2. Spell Check if no results or just to show suggestions
-      const spellRes = await axios.get(`http://localhost:8080/api/spellcheck`, {
-        params: { word: searchQuery }
-      });
-      if (!spellRes.data.exists) {
-        setSpellCheck(spellRes.data.suggestions);
+      if (page > 1) {
+        // Spell check, facets and top searches only change with the query
+        const res = await axios.get(`http://localhost:8080/api/search`, { params });
+        setProducts(res.data.items);
+        setTotalHits(res.data.total);
+        setCurrentPage(page);
+        setLoading(false);
+        return;
       }
-
-      fetchTopSearches();
+      // Results, spell check, facet counts and top searches in one request
+      const res = await axios.get(`http://localhost:8080/api/search/bundle`, { params });
+      setActiveQuery(searchQuery);
+      setProducts(res.data.results.items);
+      setTotalHits(res.data.results.total);
+      setCurrentPage(page);
+      setSpellCheck(res.data.spellcheck.exists ? null : res.data.spellcheck.suggestions);
+      setFacetCounts(res.data.facets);
+      setTopSearches(res.data.topSearches);
     } catch (err) {
       console.error(err);
     }
@@ -172,6 +199,7 @@ function App() {
 
   const handleShowAll = () => {
     setQuery('');
+    setActiveQuery('');
     setSuggestions([]);
     setSpellCheck(null);
     setSelectedBrands([]);
@@ -186,7 +214,7 @@ function App() {
     if (val.length > 1) {
       try {
         const res = await axios.get(`http://localhost:8080/api/autocomplete`, {
-          params: { prefix: val }
+          params: { prefix: val, limit: 10 }
         });
         setSuggestions(res.data);
       } catch (err) {
@@ -243,15 +271,17 @@ function App() {
     setUser(null);
   };
 
-  // Pagination Logic
-  const indexOfLastItem = currentPage * itemsPerPage;
-  const indexOfFirstItem = indexOfLastItem - itemsPerPage;
-  const currentItems = products.slice(indexOfFirstItem, indexOfLastItem);
-  const totalPages = Math.ceil(products.length / itemsPerPage);
+  // Pagination Logic (pages are fetched from the server)
+  const currentItems = products;
+  const totalPages = Math.ceil(totalHits / itemsPerPage);
 
   const paginate = (pageNumber) => {
     if (pageNumber > 0 && pageNumber <= totalPages) {
-      setCurrentPage(pageNumber);
+      if (activeQuery) {
+        performSearch(activeQuery, sorts, selectedBrands, selectedTypes, pageNumber);
+      } else {
+        fetchProducts(sorts, selectedBrands, selectedTypes, pageNumber);
+      }
       window.scrollTo({ top: 0, behavior: 'smooth' });
     }
   };
@@ -320,6 +350,7 @@ function App() {
                       readOnly 
                     />
                     <span>{brand}</span>
+                    {facetCounts.brands[brand] !== undefined && <span className="facet-count">({facetCounts.brands[brand]})</span>}
                   </div>
                 ))}
               </div>
@@ -347,6 +378,7 @@ function App() {
                       readOnly 
                     />
                     <span>{type}</span>
+                    {facetCounts.types[type] !== undefined && <span className="facet-count">({facetCounts.types[type]})</span>}
                   </div>
                 ))}
               </div>